@@ -13,8 +13,11 @@ package com.redhat.devtools.intellij.common;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.Key;
 
+import java.nio.file.Paths;
+
 public class CommonConstants {
     public static final String HOME_FOLDER = System.getProperty("user.home");
+    public static final String CACHE_FOLDER = Paths.get(HOME_FOLDER, ".redhat", "intellij-common").toString();
 
     public static final Key<Project> PROJECT = Key.create("com.redhat.devtools.intellij.common.project");
     public static final Key<Long> LAST_MODIFICATION_STAMP = Key.create("com.redhat.devtools.intellij.common.last.modification.stamp");
@@ -0,0 +1,111 @@
+/*******************************************************************************
+ * Copyright (c) 2020 Red Hat, Inc.
+ * Distributed under license by Red Hat, Inc. All rights reserved.
+ * This program is made available under the terms of the
+ * Eclipse Public License v2.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ * Red Hat, Inc.
+ ******************************************************************************/
+package com.redhat.devtools.intellij.common.utils;
+
+import org.apache.commons.io.IOUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * The compression and archive formats of the downloaded tools, recognized by the magic bytes at the beginning of the
+ * content rather than by the name of the downloaded file.
+ */
+public enum ArchiveFormat {
+    GZIP("gz", true, 0, 0x1F, 0x8B),
+    BZIP2("bz2", true, 0, 'B', 'Z', 'h'),
+    XZ("xz", true, 0, 0xFD, '7', 'z', 'X', 'Z', 0x00),
+    ZSTD("zst", true, 0, 0x28, 0xB5, 0x2F, 0xFD),
+    ZIP("zip", false, 0, 'P', 'K', 0x03, 0x04),
+    TAR("tar", false, 257, 'u', 's', 't', 'a', 'r');
+
+    /**
+     * The number of bytes to read to detect any of the formats.
+     */
+    public static final int HEADER_SIZE = 512;
+
+    private final String extension;
+    private final boolean compression;
+    private final int offset;
+    private final int[] magic;
+
+    ArchiveFormat(String extension, boolean compression, int offset, int... magic) {
+        this.extension = extension;
+        this.compression = compression;
+        this.offset = offset;
+        this.magic = magic;
+    }
+
+    public String getExtension() {
+        return extension;
+    }
+
+    /**
+     * @return true if the format compresses a single stream, false if it is an archive of several entries
+     */
+    public boolean isCompression() {
+        return compression;
+    }
+
+    private boolean matches(byte[] header, int length) {
+        if (length < offset + magic.length) {
+            return false;
+        }
+        for (int i = 0; i < magic.length; i++) {
+            if ((header[offset + i] & 0xFF) != magic[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Detect the format from the first bytes of the content.
+     *
+     * @param header the first bytes of the content
+     * @param length the number of bytes available in header
+     * @return the format or null if the content is not in a known format
+     */
+    public static ArchiveFormat detect(byte[] header, int length) {
+        for (ArchiveFormat format : values()) {
+            if (format.matches(header, length)) {
+                return format;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Detect the format of the stream, the stream must support mark and is reset to its position once detected.
+     *
+     * @param input the stream to detect the format of
+     * @return the format or null if the content is not in a known format
+     * @throws IOException if the stream cannot be read
+     */
+    public static ArchiveFormat detect(InputStream input) throws IOException {
+        byte[] header = new byte[HEADER_SIZE];
+        input.mark(HEADER_SIZE);
+        try {
+            return detect(header, IOUtils.read(input, header));
+        } finally {
+            input.reset();
+        }
+    }
+
+    public static ArchiveFormat fromExtension(String extension) {
+        for (ArchiveFormat format : values()) {
+            if (format.extension.equals(extension)) {
+                return format;
+            }
+        }
+        return null;
+    }
+}
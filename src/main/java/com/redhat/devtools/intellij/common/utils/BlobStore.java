@@ -0,0 +1,345 @@
+/*******************************************************************************
+ * Copyright (c) 2020 Red Hat, Inc.
+ * Distributed under license by Red Hat, Inc. All rights reserved.
+ * This program is made available under the terms of the
+ * Eclipse Public License v2.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ * Red Hat, Inc.
+ ******************************************************************************/
+package com.redhat.devtools.intellij.common.utils;
+
+import com.redhat.devtools.intellij.common.CommonConstants;
+import org.apache.commons.codec.digest.DigestUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A content addressed store of tool binaries shared by all the tools and plugins of a user. Blobs are named after
+ * their SHA-256 digest and linked into the tool folders (hard link if possible, symbolic link or copy otherwise). Blobs
+ * are read-only so that a tool writing to its installed command in place, a self-updater for instance, cannot modify
+ * the blob shared with the other tool folders. On file systems without POSIX permissions blobs are copied rather than
+ * linked. Each blob keeps a list of the paths it was linked to so that the blobs no longer referenced can be garbage collected.
+ * The store is shared by all the IDE instances of the user: changes are made under a lock file in the store folder,
+ * and the verified files are recorded in the store so that they are not hashed again by every IDE session.
+ */
+public class BlobStore {
+    private static final String REFS = ".refs";
+    private static final String LOCK = ".lock";
+    private static final String VERIFIED = ".verified";
+    private static final long GC_GRACE_PERIOD = TimeUnit.HOURS.toMillis(1);
+
+    private static final Map<Path, ReentrantLock> LOCKS = new ConcurrentHashMap<>();
+
+    private static BlobStore INSTANCE;
+
+    public static synchronized BlobStore getInstance() {
+        if (INSTANCE == null) {
+            INSTANCE = new BlobStore(Paths.get(CommonConstants.CACHE_FOLDER, "blobs", "sha256"));
+        }
+        return INSTANCE;
+    }
+
+    private final Path root;
+    private final ReentrantLock lock;
+    private volatile Map<String, String> verified;
+
+    public BlobStore(Path root) {
+        this.root = root;
+        this.lock = LOCKS.computeIfAbsent(root.toAbsolutePath().normalize(), path -> new ReentrantLock());
+    }
+
+    public Path getBlob(String digest) {
+        return root.resolve(digest.toLowerCase(Locale.ENGLISH));
+    }
+
+    public boolean contains(String digest) {
+        return Files.isRegularFile(getBlob(digest));
+    }
+
+    /**
+     * Move the file into the store, the file is verified against the digest first.
+     *
+     * @param file the file to move into the store
+     * @param digest the expected SHA-256 digest of the file
+     * @return the path of the blob
+     * @throws IOException if the file does not match the digest or cannot be moved
+     */
+    public Path put(Path file, String digest) throws IOException {
+        String actual = sha256(file);
+        if (!actual.equalsIgnoreCase(digest)) {
+            throw new IOException("Checksum mismatch for " + file + ", expected " + digest + " but got " + actual);
+        }
+        Path blob = getBlob(digest);
+        return locked(() -> {
+            if (Files.isRegularFile(blob) && verify(blob, digest)) {
+                Files.delete(file);
+            } else {
+                move(file, blob);
+            }
+            protect(blob);
+            return blob;
+        });
+    }
+
+    /**
+     * Link the blob to the target path, replacing it atomically if it exists.
+     *
+     * @param digest the digest of the blob
+     * @param target the path to link the blob to
+     * @return false if the store does not contain the blob
+     * @throws IOException if the link cannot be created
+     */
+    public boolean link(String digest, Path target) throws IOException {
+        Path blob = getBlob(digest);
+        if (!Files.isRegularFile(blob)) {
+            return false;
+        }
+        return locked(() -> Files.isRegularFile(blob) && doLink(blob, target));
+    }
+
+    private boolean doLink(Path blob, Path target) throws IOException {
+        Files.createDirectories(target.getParent());
+        Path tmp = target.resolveSibling(target.getFileName() + ".link");
+        Files.deleteIfExists(tmp);
+        // blobs stored before they were read-only are protected when linked again
+        if (protect(blob)) {
+            try {
+                Files.createLink(tmp, blob);
+            } catch (IOException | UnsupportedOperationException e) {
+                try {
+                    Files.createSymbolicLink(tmp, blob);
+                } catch (IOException | UnsupportedOperationException e1) {
+                    copy(blob, tmp);
+                }
+            }
+        } else {
+            copy(blob, tmp);
+        }
+        move(tmp, target);
+        Files.write(getRefs(blob), Collections.singletonList(target.toAbsolutePath().toString()), StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        return true;
+    }
+
+    /**
+     * Make the blob read-only and executable.
+     *
+     * @return false if the file system has no POSIX permissions, the blob must then be copied rather than linked
+     */
+    private static boolean protect(Path blob) throws IOException {
+        try {
+            Files.setPosixFilePermissions(blob, PosixFilePermissions.fromString("r-xr-xr-x"));
+            return true;
+        } catch (UnsupportedOperationException e) {
+            blob.toFile().setExecutable(true);
+            return false;
+        }
+    }
+
+    /**
+     * Copy the blob to a file the tool can modify.
+     */
+    private static void copy(Path blob, Path target) throws IOException {
+        Files.copy(blob, target);
+        target.toFile().setWritable(true);
+        target.toFile().setExecutable(true);
+    }
+
+    /**
+     * Check that the file matches the digest. The result is recorded in the store as long as the file size and
+     * modification time do not change so that the file is only hashed once, even across IDE sessions.
+     */
+    public boolean verify(Path file, String digest) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            String stamp = attributes.size() + ":" + attributes.lastModifiedTime().toMillis() + ":" + digest.toLowerCase(Locale.ENGLISH);
+            String key = file.toAbsolutePath().normalize().toString();
+            if (stamp.equals(getVerified().get(key))) {
+                return true;
+            }
+            boolean valid = sha256(file).equalsIgnoreCase(digest);
+            locked(() -> {
+                Map<String, String> stamps = loadVerified();
+                if (valid) {
+                    stamps.put(key, stamp);
+                } else {
+                    stamps.remove(key);
+                }
+                saveVerified(stamps);
+                return null;
+            });
+            return valid;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private Map<String, String> getVerified() {
+        Map<String, String> stamps = verified;
+        if (stamps == null) {
+            stamps = loadVerified();
+            verified = stamps;
+        }
+        return stamps;
+    }
+
+    private Map<String, String> loadVerified() {
+        Properties properties = new Properties();
+        Path file = root.resolve(VERIFIED);
+        if (Files.exists(file)) {
+            try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                properties.load(reader);
+            } catch (IOException | IllegalArgumentException e) {
+                // corrupted, the files will be hashed again
+                properties.clear();
+            }
+        }
+        Map<String, String> stamps = new ConcurrentHashMap<>();
+        properties.stringPropertyNames().forEach(name -> stamps.put(name, properties.getProperty(name)));
+        return stamps;
+    }
+
+    /**
+     * Must be called under the store lock with stamps loaded under that same lock, so that the ones recorded by
+     * another IDE in the meantime are kept.
+     */
+    private void saveVerified(Map<String, String> stamps) throws IOException {
+        Properties properties = new Properties();
+        properties.putAll(stamps);
+        Path file = root.resolve(VERIFIED);
+        Path tmp = Files.createTempFile(root, VERIFIED, ".tmp");
+        try {
+            try (Writer writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                properties.store(writer, null);
+            }
+            move(tmp, file);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        verified = stamps;
+    }
+
+    /**
+     * Delete the blobs that are not linked anymore. Recently added blobs are kept to not race with an installation
+     * that did not link its blob yet.
+     */
+    public void gc() throws IOException {
+        if (!Files.isDirectory(root)) {
+            return;
+        }
+        locked(() -> {
+            doGc();
+            return null;
+        });
+    }
+
+    private void doGc() throws IOException {
+        List<Path> blobs = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(root, path -> !path.getFileName().toString().endsWith(REFS)
+                && !path.getFileName().toString().startsWith("."))) {
+            stream.forEach(blobs::add);
+        }
+        long now = System.currentTimeMillis();
+        for (Path blob : blobs) {
+            Path refs = getRefs(blob);
+            if (now - lastModified(blob, refs) < GC_GRACE_PERIOD) {
+                continue;
+            }
+            List<String> live = new ArrayList<>();
+            if (Files.exists(refs)) {
+                for (String ref : Files.readAllLines(refs, StandardCharsets.UTF_8)) {
+                    Path path = Paths.get(ref);
+                    if (!live.contains(ref) && Files.exists(path) && Files.isSameFile(path, blob)) {
+                        live.add(ref);
+                    }
+                }
+            }
+            if (live.isEmpty()) {
+                Files.deleteIfExists(blob);
+                Files.deleteIfExists(refs);
+            } else {
+                Files.write(refs, live, StandardCharsets.UTF_8);
+            }
+        }
+        Map<String, String> stamps = loadVerified();
+        if (stamps.keySet().removeIf(path -> !Files.exists(Paths.get(path)))) {
+            saveVerified(stamps);
+        }
+    }
+
+    /**
+     * Run the action while holding the lock of the store, shared by the stores of this IDE with the same folder and,
+     * through a lock file, by the other IDE instances. The lock is reentrant.
+     */
+    private <T> T locked(StoreAction<T> action) throws IOException {
+        lock.lock();
+        try {
+            if (lock.getHoldCount() > 1) {
+                return action.run();
+            }
+            Files.createDirectories(root);
+            try (FileChannel channel = FileChannel.open(root.resolve(LOCK), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                 FileLock ignored = channel.lock()) {
+                return action.run();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private long lastModified(Path blob, Path refs) throws IOException {
+        long lastModified = Files.getLastModifiedTime(blob).toMillis();
+        if (Files.exists(refs)) {
+            lastModified = Math.max(lastModified, Files.getLastModifiedTime(refs).toMillis());
+        }
+        return lastModified;
+    }
+
+    private Path getRefs(Path blob) {
+        return blob.resolveSibling(blob.getFileName() + REFS);
+    }
+
+    public static String sha256(Path file) throws IOException {
+        try (InputStream input = Files.newInputStream(file)) {
+            return DigestUtils.sha256Hex(input);
+        }
+    }
+
+    private interface StoreAction<T> {
+        T run() throws IOException;
+    }
+
+    private static void move(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
@@ -0,0 +1,33 @@
+/*******************************************************************************
+ * Copyright (c) 2020 Red Hat, Inc.
+ * Distributed under license by Red Hat, Inc. All rights reserved.
+ * This program is made available under the terms of the
+ * Eclipse Public License v2.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ * Red Hat, Inc.
+ ******************************************************************************/
+package com.redhat.devtools.intellij.common.utils;
+
+import com.intellij.openapi.Disposable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Detect the changes of files for the {@link ConfigWatchService}. Detectors report raw changes, possibly several for a
+ * single modification, the service debounces them.
+ */
+public interface ChangeDetector extends Disposable {
+    /**
+     * Watch a file, the file does not need to exist but its folder does.
+     *
+     * @param file the absolute and normalized path of the file to watch
+     * @param onChange called from the thread of the detector when the file was created, modified or deleted
+     * @return the watch to close to stop watching the file
+     * @throws IOException if the file cannot be watched
+     */
+    Closeable watch(Path file, Runnable onChange) throws IOException;
+}
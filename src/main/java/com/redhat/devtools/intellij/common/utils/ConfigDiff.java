@@ -0,0 +1,217 @@
+/*******************************************************************************
+ * Copyright (c) 2020 Red Hat, Inc.
+ * Distributed under license by Red Hat, Inc. All rights reserved.
+ * This program is made available under the terms of the
+ * Eclipse Public License v2.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ * Red Hat, Inc.
+ ******************************************************************************/
+package com.redhat.devtools.intellij.common.utils;
+
+import io.fabric8.kubernetes.api.model.AuthInfo;
+import io.fabric8.kubernetes.api.model.Cluster;
+import io.fabric8.kubernetes.api.model.Config;
+import io.fabric8.kubernetes.api.model.Context;
+import io.fabric8.kubernetes.api.model.NamedAuthInfo;
+import io.fabric8.kubernetes.api.model.NamedCluster;
+import io.fabric8.kubernetes.api.model.NamedContext;
+import io.fabric8.kubernetes.client.internal.KubeConfigUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * The changes between two kube configs: the current context or its namespace changed, contexts, clusters or users were
+ * added, removed or modified.
+ */
+public class ConfigDiff {
+    public enum Kind {
+        /**
+         * The current context changed, the values of the event are the names of the contexts.
+         */
+        CURRENT_CONTEXT_CHANGED,
+        /**
+         * The namespace of the current context changed, because the current context changed or its namespace was
+         * modified. The name of the event is the current context, the values are the namespaces.
+         */
+        NAMESPACE_CHANGED,
+        CONTEXT_ADDED,
+        CONTEXT_REMOVED,
+        /**
+         * The values of the event are the {@link Context}s.
+         */
+        CONTEXT_MODIFIED,
+        CLUSTER_ADDED,
+        CLUSTER_REMOVED,
+        /**
+         * The values of the event are the {@link Cluster}s.
+         */
+        CLUSTER_MODIFIED,
+        USER_ADDED,
+        USER_REMOVED,
+        /**
+         * The values of the event are the {@link AuthInfo}s.
+         */
+        USER_MODIFIED
+    }
+
+    public static class Event<T> {
+        private final Kind kind;
+        private final String name;
+        private final T previous;
+        private final T current;
+
+        private Event(Kind kind, String name, T previous, T current) {
+            this.kind = kind;
+            this.name = name;
+            this.previous = previous;
+            this.current = current;
+        }
+
+        public Kind getKind() {
+            return kind;
+        }
+
+        /**
+         * @return the name of the context, cluster or user, the name of the current context for the current context
+         * and namespace changes
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the previous value, null if it was added
+         */
+        public T getPrevious() {
+            return previous;
+        }
+
+        /**
+         * @return the current value, null if it was removed
+         */
+        public T getCurrent() {
+            return current;
+        }
+
+        @Override
+        public String toString() {
+            return kind + " " + name;
+        }
+    }
+
+    private final Config previous;
+    private final Config current;
+    private final List<Event<?>> events;
+
+    private ConfigDiff(Config previous, Config current, List<Event<?>> events) {
+        this.previous = previous;
+        this.current = current;
+        this.events = Collections.unmodifiableList(events);
+    }
+
+    /**
+     * @param previous the previous config, null if there was none
+     * @param current the current config
+     * @return the changes from the previous config to the current one
+     */
+    public static ConfigDiff compute(Config previous, Config current) {
+        List<Event<?>> events = new ArrayList<>();
+        String previousContext = previous == null ? null : previous.getCurrentContext();
+        if (!Objects.equals(previousContext, current.getCurrentContext())) {
+            events.add(new Event<>(Kind.CURRENT_CONTEXT_CHANGED, current.getCurrentContext(), previousContext, current.getCurrentContext()));
+        }
+        String previousNamespace = getCurrentNamespace(previous);
+        String currentNamespace = getCurrentNamespace(current);
+        if (!Objects.equals(previousNamespace, currentNamespace)) {
+            events.add(new Event<>(Kind.NAMESPACE_CHANGED, current.getCurrentContext(), previousNamespace, currentNamespace));
+        }
+        compare(previous, current, Config::getContexts, NamedContext::getName, NamedContext::getContext,
+                Kind.CONTEXT_ADDED, Kind.CONTEXT_REMOVED, Kind.CONTEXT_MODIFIED, events);
+        compare(previous, current, Config::getClusters, NamedCluster::getName, NamedCluster::getCluster,
+                Kind.CLUSTER_ADDED, Kind.CLUSTER_REMOVED, Kind.CLUSTER_MODIFIED, events);
+        compare(previous, current, Config::getUsers, NamedAuthInfo::getName, NamedAuthInfo::getUser,
+                Kind.USER_ADDED, Kind.USER_REMOVED, Kind.USER_MODIFIED, events);
+        return new ConfigDiff(previous, current, events);
+    }
+
+    private static String getCurrentNamespace(Config config) {
+        Context context = config == null ? null : KubeConfigUtils.getCurrentContext(config);
+        return context == null ? null : context.getNamespace();
+    }
+
+    private static <N, T> void compare(Config previous, Config current, Function<Config, List<N>> list,
+                                       Function<N, String> name, Function<N, T> value,
+                                       Kind added, Kind removed, Kind modified, List<Event<?>> events) {
+        Map<String, T> previousValues = toMap(previous, list, name, value);
+        Map<String, T> currentValues = toMap(current, list, name, value);
+        previousValues.forEach((key, previousValue) -> {
+            if (!currentValues.containsKey(key)) {
+                events.add(new Event<>(removed, key, previousValue, null));
+            }
+        });
+        currentValues.forEach((key, currentValue) -> {
+            if (!previousValues.containsKey(key)) {
+                events.add(new Event<>(added, key, null, currentValue));
+            } else if (!Objects.equals(previousValues.get(key), currentValue)) {
+                events.add(new Event<>(modified, key, previousValues.get(key), currentValue));
+            }
+        });
+    }
+
+    private static <N, T> Map<String, T> toMap(Config config, Function<Config, List<N>> list, Function<N, String> name,
+                                               Function<N, T> value) {
+        Map<String, T> values = new LinkedHashMap<>();
+        if (config != null && list.apply(config) != null) {
+            for (N named : list.apply(config)) {
+                values.putIfAbsent(name.apply(named), value.apply(named));
+            }
+        }
+        return values;
+    }
+
+    /**
+     * @return the previous config, null if there was none
+     */
+    public Config getPrevious() {
+        return previous;
+    }
+
+    public Config getCurrent() {
+        return current;
+    }
+
+    public List<Event<?>> getEvents() {
+        return events;
+    }
+
+    /**
+     * @param kinds the kinds of the events to return
+     * @return the events of the given kinds
+     */
+    public List<Event<?>> getEvents(Kind... kinds) {
+        Set<Kind> selected = EnumSet.noneOf(Kind.class);
+        selected.addAll(Arrays.asList(kinds));
+        return events.stream().filter(event -> selected.contains(event.getKind())).collect(Collectors.toList());
+    }
+
+    public boolean isEmpty() {
+        return events.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return events.toString();
+    }
+}
@@ -12,24 +12,199 @@ package com.redhat.devtools.intellij.common.utils;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import io.fabric8.kubernetes.api.model.Cluster;
+import io.fabric8.kubernetes.api.model.ClusterBuilder;
 import io.fabric8.kubernetes.api.model.Config;
 import io.fabric8.kubernetes.api.model.ConfigBuilder;
 import io.fabric8.kubernetes.api.model.Context;
+import io.fabric8.kubernetes.api.model.ContextBuilder;
+import io.fabric8.kubernetes.api.model.NamedCluster;
 import io.fabric8.kubernetes.client.internal.KubeConfigUtils;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 public class ConfigHelper {
     private static final ObjectMapper mapper = new ObjectMapper(new YAMLFactory());
 
+    /**
+     * Files with a coarse modification time, modified less than this time before they were parsed, may be modified
+     * again without changing their modification time, their snapshot is not trusted.
+     */
+    private static final long RACY_WINDOW = 2000;
+
+    private static final long LOCK_TIMEOUT = TimeUnit.SECONDS.toMillis(5);
+    private static final long LOCK_RETRY_DELAY = 50;
+
+    private static final Map<Path, KubeConfigSnapshot> snapshots = new ConcurrentHashMap<>();
+
+    private static volatile MergedKubeConfig merged;
+
+    /**
+     * @return the kube config new entries are written to: the first file listed in KUBECONFIG that exists, the last
+     * one if none exists, ~/.kube/config if KUBECONFIG is not set
+     */
     public static String getKubeConfigPath() {
-        return System.getProperty("user.home") + "/.kube/config";
+        List<Path> paths = getKubeConfigPaths();
+        return paths.stream()
+                .filter(Files::exists)
+                .findFirst()
+                .orElse(paths.get(paths.size() - 1))
+                .toString();
+    }
+
+    /**
+     * @return the kube configs listed in KUBECONFIG, ~/.kube/config if KUBECONFIG is not set
+     */
+    public static List<Path> getKubeConfigPaths() {
+        return getKubeConfigPaths(System.getenv("KUBECONFIG"));
+    }
+
+    static List<Path> getKubeConfigPaths(String kubeConfig) {
+        Set<Path> paths = new LinkedHashSet<>();
+        if (kubeConfig != null) {
+            for (String path : kubeConfig.split(File.pathSeparator)) {
+                if (!path.trim().isEmpty()) {
+                    paths.add(Paths.get(path.trim()).toAbsolutePath().normalize());
+                }
+            }
+        }
+        if (paths.isEmpty()) {
+            paths.add(Paths.get(System.getProperty("user.home"), ".kube", "config"));
+        }
+        return Collections.unmodifiableList(new ArrayList<>(paths));
     }
 
     public static void saveKubeConfig(Config config) throws IOException {
-        mapper.writeValue(new File(getKubeConfigPath()), config);
+        saveKubeConfig(config, getKubeConfigPaths());
+    }
+
+    /**
+     * Save the config merged from the files, each entry is written back to the file that defines it, see
+     * {@link KubeConfigMerge#split(Config, List)}. The files are locked the way kubectl does, with a .lock file next
+     * to them, and replaced atomically. Only the files whose content changed are written.
+     */
+    public static void saveKubeConfig(Config config, List<Path> paths) throws IOException {
+        Path target = paths.stream()
+                .filter(Files::exists)
+                .findFirst()
+                .orElse(paths.get(paths.size() - 1));
+        List<KubeConfigLock> locks = new ArrayList<>();
+        try {
+            for (Path path : paths) {
+                if (path.equals(target) || Files.exists(path)) {
+                    locks.add(KubeConfigLock.acquire(path));
+                }
+            }
+            if (paths.size() == 1) {
+                writeKubeConfig(paths.get(0), config);
+                return;
+            }
+            // read again under the locks in case another process modified the files
+            List<Config> configs = new ArrayList<>(paths.size());
+            for (Path path : paths) {
+                KubeConfigSnapshot snapshot = getKubeConfigSnapshot(path.toFile());
+                configs.add(snapshot.exists() ? snapshot.getConfig() : null);
+            }
+            List<Config> split = KubeConfigMerge.split(config, configs);
+            for (int i = 0; i < paths.size(); i++) {
+                if (split.get(i) != null && !split.get(i).equals(configs.get(i))) {
+                    writeKubeConfig(paths.get(i), split.get(i));
+                }
+            }
+        } finally {
+            for (int i = locks.size() - 1; i >= 0; i--) {
+                locks.get(i).close();
+            }
+        }
+    }
+
+    /**
+     * Write the config to a temporary file that is synced and renamed over the file, readers never see a partially
+     * written file. The file is not written if its content is unchanged.
+     */
+    private static void writeKubeConfig(Path path, Config config) throws IOException {
+        Path key = path.toAbsolutePath();
+        // replace the target of a link rather than the link
+        Path file = Files.isSymbolicLink(key) ? key.toRealPath() : key;
+        byte[] content = mapper.writeValueAsBytes(config);
+        if (Files.exists(file) && Arrays.equals(content, Files.readAllBytes(file))) {
+            return;
+        }
+        Path folder = file.getParent();
+        Files.createDirectories(folder);
+        Path tmp = Files.createTempFile(folder, file.getFileName().toString(), ".tmp");
+        try {
+            copyPermissions(file, tmp);
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                ByteBuffer buffer = ByteBuffer.wrap(content);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(true);
+            }
+            try {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+            syncFolder(folder);
+        } catch (IOException e) {
+            snapshots.remove(key);
+            throw e;
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        // the written content is known, the next load does not need to read it again. It is parsed rather than copied
+        // from the config so that the next load returns what parsing the file returns.
+        BasicFileAttributes attributes = Files.readAttributes(key, BasicFileAttributes.class);
+        snapshots.put(key, KubeConfigSnapshot.parse(content, attributes.size(), attributes.lastModifiedTime()));
+    }
+
+    private static void copyPermissions(Path source, Path target) {
+        try {
+            if (Files.exists(source)) {
+                Files.setPosixFilePermissions(target, Files.getPosixFilePermissions(source));
+            }
+        } catch (UnsupportedOperationException | IOException e) {
+            // not a POSIX file system, the temporary file is only accessible to the user
+        }
+    }
+
+    private static void syncFolder(Path folder) {
+        try (FileChannel channel = FileChannel.open(folder, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // folders cannot be opened on Windows, the rename is already durable there
+        }
     }
 
     public static Config safeLoadKubeConfig() {
@@ -40,42 +215,304 @@ public class ConfigHelper {
         }
     }
 
+    /**
+     * Load the kube config, merged from the files listed in KUBECONFIG.
+     */
     public static Config loadKubeConfig() throws IOException {
-        File f = new File(getKubeConfigPath());
-        if (f.exists()) {
-            return KubeConfigUtils.parseConfig(f);
-        } else {
-            return new ConfigBuilder().build();
-        }
+        return loadKubeConfig(getKubeConfigPaths());
     }
 
+    /**
+     * Load the config merged from the files, see {@link KubeConfigMerge#merge(List)}. A file is only parsed again if
+     * its size or modification time changed, the returned config is a copy that can be modified.
+     */
+    public static Config loadKubeConfig(List<Path> paths) throws IOException {
+        return new ConfigBuilder(getMergedKubeConfig(paths)).build();
+    }
+
+    /**
+     * @return true if at least one of the files listed in KUBECONFIG exists and all the existing ones can be parsed
+     */
     public static boolean isKubeConfigParsable() {
-        return isKubeConfigParsable(new File(getKubeConfigPath()));
+        try {
+            List<Path> paths = getKubeConfigPaths();
+            getMergedKubeConfig(paths);
+            return paths.stream().anyMatch(Files::exists);
+        } catch (IOException e) {
+            return false;
+        }
     }
 
+    /**
+     * @return true if the file exists and can be parsed. Only the files listed in KUBECONFIG or last loaded keep
+     * their parsed config, other files are parsed at each call.
+     */
     public static boolean isKubeConfigParsable(File kubeConfig) {
         try {
-            mapper.readValue(kubeConfig, Config.class);
-            return true;
+            Path path = kubeConfig.toPath().toAbsolutePath();
+            KubeConfigSnapshot snapshot = getKubeConfigSnapshot(kubeConfig, isTracked(path));
+            return snapshot.exists() && snapshot.getConfig() != null;
         } catch (IOException e) {
             return false;
         }
     }
 
+    private static boolean isTracked(Path path) {
+        MergedKubeConfig current = merged;
+        return getKubeConfigPaths().contains(path)
+                || (current != null && current.paths.stream().anyMatch(loaded -> loaded.toAbsolutePath().equals(path)));
+    }
+
+    /**
+     * @return the files whose parsed config is kept
+     */
+    static Set<Path> getSnapshotPaths() {
+        return Collections.unmodifiableSet(snapshots.keySet());
+    }
+
+    /**
+     * @return the merged config, shared and not to be modified
+     */
+    private static Config getMergedKubeConfig(List<Path> paths) throws IOException {
+        List<KubeConfigSnapshot> fileSnapshots = new ArrayList<>(paths.size());
+        for (Path path : paths) {
+            fileSnapshots.add(getKubeConfigSnapshot(path.toFile()));
+        }
+        MergedKubeConfig current = merged;
+        if (current != null && current.isValid(paths, fileSnapshots)) {
+            return current.config;
+        }
+        List<Config> configs = new ArrayList<>(paths.size());
+        for (KubeConfigSnapshot snapshot : fileSnapshots) {
+            configs.add(snapshot.exists() ? snapshot.getConfig() : null);
+        }
+        current = new MergedKubeConfig(paths, fileSnapshots, KubeConfigMerge.merge(configs));
+        merged = current;
+        // forget the files loaded before, that are not listed anymore
+        Set<Path> tracked = new HashSet<>(getKubeConfigPaths());
+        paths.forEach(path -> tracked.add(path.toAbsolutePath()));
+        snapshots.keySet().retainAll(tracked);
+        return current.config;
+    }
+
+    /**
+     * @return the parsed config of the file, shared and not to be modified
+     */
+    private static KubeConfigSnapshot getKubeConfigSnapshot(File file) throws IOException {
+        return getKubeConfigSnapshot(file, true);
+    }
+
+    /**
+     * @param keep true to keep the parsed config for the next calls
+     */
+    private static KubeConfigSnapshot getKubeConfigSnapshot(File file, boolean keep) throws IOException {
+        Path path = file.toPath().toAbsolutePath();
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            snapshots.remove(path);
+            return KubeConfigSnapshot.EMPTY;
+        }
+        long size = attributes.size();
+        FileTime lastModified = attributes.lastModifiedTime();
+        KubeConfigSnapshot snapshot = snapshots.get(path);
+        if (snapshot == null || !snapshot.isValid(size, lastModified)) {
+            snapshot = KubeConfigSnapshot.parse(file, size, lastModified);
+            if (keep) {
+                snapshots.put(path, snapshot);
+            }
+        }
+        return snapshot;
+    }
+
     public static ToolsConfig loadToolsConfig() throws IOException {
         return loadToolsConfig(ConfigHelper.class.getResource("/tools.json"));
     }
 
+    /**
+     * Load the tools configuration through the {@link ToolsConfigCache}, the returned configuration must not be
+     * modified.
+     */
     public static ToolsConfig loadToolsConfig(URL url) throws IOException {
-        return mapper.readValue(url, ToolsConfig.class);
+        return ToolsConfigCache.getInstance().load(url);
     }
 
     public static Context getCurrentContext() {
+        Context context = getSharedCurrentContext();
+        return context == null ? null : new ContextBuilder(context).build();
+    }
+
+    /**
+     * @return the namespace of the current context, null if there is no current context or namespace
+     */
+    public static String getCurrentNamespace() {
+        Context context = getSharedCurrentContext();
+        return context == null ? null : context.getNamespace();
+    }
+
+    /**
+     * @return the cluster of the current context, null if there is no current context or cluster
+     */
+    public static Cluster getCurrentCluster() {
         try {
-            Config config = loadKubeConfig();
-            return KubeConfigUtils.getCurrentContext(config);
+            Config config = getMergedKubeConfig(getKubeConfigPaths());
+            Context context = KubeConfigUtils.getCurrentContext(config);
+            if (context == null || config.getClusters() == null) {
+                return null;
+            }
+            return config.getClusters().stream()
+                    .filter(cluster -> Objects.equals(cluster.getName(), context.getCluster()))
+                    .map(NamedCluster::getCluster)
+                    .filter(Objects::nonNull)
+                    .map(cluster -> new ClusterBuilder(cluster).build())
+                    .findFirst().orElse(null);
         } catch (IOException e) {
             return null;
         }
     }
+
+    private static Context getSharedCurrentContext() {
+        try {
+            return KubeConfigUtils.getCurrentContext(getMergedKubeConfig(getKubeConfigPaths()));
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * The config parsed from a file, or the error parsing it, with the size and modification time of the file when it
+     * was parsed.
+     */
+    private static class KubeConfigSnapshot {
+        private static final KubeConfigSnapshot EMPTY = new KubeConfigSnapshot(new ConfigBuilder().build(), null, -1, FileTime.fromMillis(0));
+
+        private final Config config;
+        private final IOException error;
+        private final long size;
+        private final FileTime lastModified;
+        private final boolean racy;
+
+        private KubeConfigSnapshot(Config config, IOException error, long size, FileTime lastModified) {
+            this.config = config;
+            this.error = error;
+            this.size = size;
+            this.lastModified = lastModified;
+            // file systems with a precision of a second or more can hide a modification made right after this one
+            this.racy = lastModified.to(TimeUnit.NANOSECONDS) % TimeUnit.SECONDS.toNanos(1) == 0
+                    && System.currentTimeMillis() - lastModified.toMillis() < RACY_WINDOW;
+        }
+
+        private static KubeConfigSnapshot parse(byte[] content, long size, FileTime lastModified) {
+            try {
+                return new KubeConfigSnapshot(KubeConfigUtils.parseConfigFromString(new String(content, StandardCharsets.UTF_8)), null, size, lastModified);
+            } catch (IOException e) {
+                return new KubeConfigSnapshot(null, e, size, lastModified);
+            }
+        }
+
+        private static KubeConfigSnapshot parse(File file, long size, FileTime lastModified) {
+            try {
+                return new KubeConfigSnapshot(KubeConfigUtils.parseConfig(file), null, size, lastModified);
+            } catch (IOException e) {
+                return new KubeConfigSnapshot(null, e, size, lastModified);
+            }
+        }
+
+        private boolean isValid(long size, FileTime lastModified) {
+            return !racy && this.size == size && this.lastModified.equals(lastModified);
+        }
+
+        private boolean exists() {
+            return this != EMPTY;
+        }
+
+        private Config getConfig() throws IOException {
+            if (error != null) {
+                throw error;
+            }
+            return config;
+        }
+    }
+
+    /**
+     * The config merged from the snapshots of the files, valid as long as none of the snapshots is replaced.
+     */
+    private static class MergedKubeConfig {
+        private final List<Path> paths;
+        private final List<KubeConfigSnapshot> snapshots;
+        private final Config config;
+
+        private MergedKubeConfig(List<Path> paths, List<KubeConfigSnapshot> snapshots, Config config) {
+            this.paths = paths;
+            this.snapshots = snapshots;
+            this.config = config;
+        }
+
+        private boolean isValid(List<Path> paths, List<KubeConfigSnapshot> snapshots) {
+            if (!this.paths.equals(paths)) {
+                return false;
+            }
+            for (int i = 0; i < snapshots.size(); i++) {
+                if (this.snapshots.get(i) != snapshots.get(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * The kubectl lock of a kube config: a file named after the kube config with a .lock suffix that is created when
+     * the kube config is written and deleted once it is written. The lock file is also locked with a {@link FileLock}.
+     */
+    private static class KubeConfigLock implements Closeable {
+        private final Path file;
+        private final FileChannel channel;
+        private final FileLock lock;
+
+        private KubeConfigLock(Path file, FileChannel channel, FileLock lock) {
+            this.file = file;
+            this.channel = channel;
+            this.lock = lock;
+        }
+
+        private static KubeConfigLock acquire(Path path) throws IOException {
+            Path file = path.resolveSibling(path.getFileName() + ".lock");
+            Files.createDirectories(file.toAbsolutePath().getParent());
+            long deadline = System.currentTimeMillis() + LOCK_TIMEOUT;
+            while (true) {
+                try {
+                    FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+                    try {
+                        return new KubeConfigLock(file, channel, channel.lock());
+                    } catch (IOException e) {
+                        channel.close();
+                        Files.deleteIfExists(file);
+                        throw e;
+                    }
+                } catch (FileAlreadyExistsException e) {
+                    if (System.currentTimeMillis() > deadline) {
+                        throw new IOException("Could not lock " + path + ", " + file + " exists. Delete it if no other process is writing the kube config.", e);
+                    }
+                    try {
+                        Thread.sleep(LOCK_RETRY_DELAY);
+                    } catch (InterruptedException interrupted) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted while waiting for " + file);
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                lock.release();
+                channel.close();
+            } finally {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
 }
@@ -0,0 +1,258 @@
+/*******************************************************************************
+ * Copyright (c) 2020 Red Hat, Inc.
+ * Distributed under license by Red Hat, Inc. All rights reserved.
+ * This program is made available under the terms of the
+ * Eclipse Public License v2.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ * Red Hat, Inc.
+ ******************************************************************************/
+package com.redhat.devtools.intellij.common.utils;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.Application;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.Disposer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watch files for changes with detectors shared by all the watched files. The events of a burst, such as the
+ * several modifications of an editor save, are coalesced: the change callback of a file runs once on the
+ * {@link TaskScheduler} IO lane, after no event was received for the debounce window. The callback of a registration
+ * never runs concurrently with itself.
+ * <p>
+ * Files are watched by the {@link NativeChangeDetector} when the OS notifies changes natively and the file is on a
+ * local file system, by the {@link PollingChangeDetector} otherwise, see {@link Strategy}.
+ */
+public class ConfigWatchService implements Disposable {
+    private static final Logger LOGGER = Logger.getInstance(ConfigWatchService.class);
+
+    private static final long DEFAULT_DEBOUNCE = Long.getLong("com.redhat.devtools.intellij.common.configWatchDebounce", 300);
+
+    /**
+     * The types of the network file systems, on which changes made by other hosts are not notified.
+     */
+    private static final Set<String> NETWORK_FILE_SYSTEMS = new HashSet<>(Arrays.asList(
+            "nfs", "nfs4", "cifs", "smb", "smbfs", "smb2", "afpfs", "webdav", "fuse.sshfs", "9p", "afs"));
+
+    public enum Strategy {
+        /**
+         * Native notifications where they are reliable, polling otherwise.
+         */
+        AUTO,
+        /**
+         * Always use a {@link java.nio.file.WatchService}.
+         */
+        NATIVE,
+        /**
+         * Always poll the watched files.
+         */
+        POLLING
+    }
+
+    private static ConfigWatchService INSTANCE;
+
+    public static synchronized ConfigWatchService getInstance() {
+        if (INSTANCE == null) {
+            String strategy = System.getProperty("com.redhat.devtools.intellij.common.configWatchStrategy", Strategy.AUTO.name());
+            INSTANCE = new ConfigWatchService(DEFAULT_DEBOUNCE, Strategy.valueOf(strategy.toUpperCase(Locale.ENGLISH)));
+            INSTANCE.registerShutdown();
+        }
+        return INSTANCE;
+    }
+
+    private final long debounce;
+    private final Strategy strategy;
+    private final Map<Path, List<Registration>> registrations = new HashMap<>();
+    private final Map<Path, Closeable> watches = new HashMap<>();
+    private NativeChangeDetector nativeDetector;
+    private PollingChangeDetector pollingDetector;
+    private Boolean nativeAvailable;
+
+    /**
+     * @param debounce the time in milliseconds without events after which the change callbacks are run
+     */
+    public ConfigWatchService(long debounce) {
+        this(debounce, Strategy.AUTO);
+    }
+
+    /**
+     * @param debounce the time in milliseconds without events after which the change callbacks are run
+     * @param strategy how changes are detected
+     */
+    public ConfigWatchService(long debounce, Strategy strategy) {
+        this.debounce = debounce;
+        this.strategy = strategy;
+    }
+
+    /**
+     * Watch a file, the file does not need to exist but its folder does.
+     *
+     * @param file the file to watch
+     * @param onChange the callback run once the file was created, modified or deleted
+     * @return the registration to close to stop watching the file
+     * @throws IOException if the folder of the file cannot be watched
+     */
+    public synchronized Registration register(Path file, Runnable onChange) throws IOException {
+        Path path = file.toAbsolutePath().normalize();
+        if (!watches.containsKey(path)) {
+            watches.put(path, getDetector(path).watch(path, () -> changed(path)));
+        }
+        Registration registration = new Registration(path, onChange);
+        registrations.computeIfAbsent(path, p -> new ArrayList<>()).add(registration);
+        return registration;
+    }
+
+    protected NativeChangeDetector newNativeDetector() {
+        return new NativeChangeDetector();
+    }
+
+    protected PollingChangeDetector newPollingDetector() {
+        return new PollingChangeDetector();
+    }
+
+    private ChangeDetector getDetector(Path file) {
+        if (strategy == Strategy.NATIVE
+                || (strategy == Strategy.AUTO && isNativeAvailable() && !isOnNetworkFileSystem(file))) {
+            if (nativeDetector == null) {
+                nativeDetector = newNativeDetector();
+            }
+            return nativeDetector;
+        }
+        if (pollingDetector == null) {
+            pollingDetector = newPollingDetector();
+        }
+        return pollingDetector;
+    }
+
+    private boolean isNativeAvailable() {
+        if (nativeAvailable == null) {
+            nativeAvailable = NativeChangeDetector.isNative();
+        }
+        return nativeAvailable;
+    }
+
+    private static boolean isOnNetworkFileSystem(Path file) {
+        try {
+            return NETWORK_FILE_SYSTEMS.contains(Files.getFileStore(file.getParent()).type().toLowerCase(Locale.ENGLISH));
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private synchronized void changed(Path file) {
+        List<Registration> list = registrations.get(file);
+        if (list != null) {
+            list.forEach(Registration::changed);
+        }
+    }
+
+    private synchronized void unregister(Registration registration) {
+        List<Registration> list = registrations.get(registration.file);
+        if (list == null || !list.remove(registration)) {
+            return;
+        }
+        registration.cancel();
+        if (list.isEmpty()) {
+            registrations.remove(registration.file);
+            close(watches.remove(registration.file));
+        }
+    }
+
+    private static void close(Closeable watch) {
+        if (watch != null) {
+            try {
+                watch.close();
+            } catch (IOException e) {
+                LOGGER.warn("Could not stop watching", e);
+            }
+        }
+    }
+
+    private void registerShutdown() {
+        Application application = ApplicationManager.getApplication();
+        if (application != null) {
+            Disposer.register(application, this);
+        }
+    }
+
+    @Override
+    public synchronized void dispose() {
+        registrations.values().forEach(list -> list.forEach(Registration::cancel));
+        registrations.clear();
+        watches.values().forEach(ConfigWatchService::close);
+        watches.clear();
+        if (nativeDetector != null) {
+            nativeDetector.dispose();
+            nativeDetector = null;
+        }
+        if (pollingDetector != null) {
+            pollingDetector.dispose();
+            pollingDetector = null;
+        }
+    }
+
+    /**
+     * A watched file, closing it stops watching the file.
+     */
+    public class Registration implements Closeable {
+        private final Path file;
+        private final Runnable onChange;
+        private final Object running = new Object();
+        private ScheduledFuture<?> pending;
+        private volatile boolean cancelled;
+
+        private Registration(Path file, Runnable onChange) {
+            this.file = file;
+            this.onChange = onChange;
+        }
+
+        public Path getFile() {
+            return file;
+        }
+
+        private synchronized void changed() {
+            if (pending != null) {
+                pending.cancel(false);
+            }
+            pending = TaskScheduler.getInstance().schedule(TaskScheduler.Lane.IO, this::run, debounce, TimeUnit.MILLISECONDS);
+        }
+
+        private void run() {
+            synchronized (running) {
+                if (!cancelled) {
+                    onChange.run();
+                }
+            }
+        }
+
+        private synchronized void cancel() {
+            cancelled = true;
+            if (pending != null) {
+                pending.cancel(false);
+                pending = null;
+            }
+        }
+
+        @Override
+        public void close() {
+            unregister(this);
+        }
+    }
+}
@@ -10,84 +10,233 @@
  ******************************************************************************/
 package com.redhat.devtools.intellij.common.utils;
 
+import com.intellij.openapi.diagnostic.Logger;
 import io.fabric8.kubernetes.api.model.Config;
-import org.jetbrains.annotations.NotNull;
+import io.fabric8.kubernetes.api.model.ConfigBuilder;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.nio.file.FileSystems;
 import java.nio.file.Path;
 import java.nio.file.StandardWatchEventKinds;
 import java.nio.file.WatchEvent;
-import java.nio.file.WatchKey;
 import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
 
-public class ConfigWatcher implements Runnable {
-    private final Path config;
+/**
+ * Notify the listener when the kube config changed. The files are watched by the shared {@link ConfigWatchService}:
+ * {@link #start()} registers the files and returns, {@link #close()} unregisters them. {@link #run()} keeps its
+ * blocking contract for the callers running the watcher on a thread of its own. Bursts of changes are coalesced into a
+ * single reload and the listener is only notified if the loaded config differs from the previous one. Only the files that changed are parsed
+ * again before the config is merged, see {@link ConfigHelper#loadKubeConfig(List)}.
+ * <p>
+ * {@link DiffListener}s are notified with the {@link ConfigDiff} from the previous config instead of the whole config,
+ * so that they only refresh what changed.
+ */
+public class ConfigWatcher implements Runnable, Closeable {
+    private static final Logger LOGGER = Logger.getInstance(ConfigWatcher.class);
+
+    private final List<Path> configs;
+    private final List<Path> loaded;
     protected Listener listener;
+    private final List<DiffListener> diffListeners = new CopyOnWriteArrayList<>();
+    private final List<ConfigWatchService.Registration> registrations = new ArrayList<>();
+    private final Object reloading = new Object();
+    private Config current;
+    private CountDownLatch closed = new CountDownLatch(1);
 
     public interface Listener {
         void onUpdate(ConfigWatcher source, Config config);
     }
 
+    public interface DiffListener {
+        /**
+         * @param source the watcher
+         * @param diff the changes from the previous config, never empty
+         */
+        void onChange(ConfigWatcher source, ConfigDiff diff);
+    }
+
+    /**
+     * Watch the files listed in KUBECONFIG, ~/.kube/config if it is not set, for the {@link DiffListener}s.
+     */
+    public ConfigWatcher() {
+        this((Listener) null);
+    }
+
+    /**
+     * Watch the files listed in KUBECONFIG, ~/.kube/config if it is not set.
+     */
+    public ConfigWatcher(Listener listener) {
+        this(ConfigHelper.getKubeConfigPaths(), listener);
+    }
+
+    /**
+     * Watch a single file, the config loaded on changes is still merged from the files listed in KUBECONFIG.
+     */
     public ConfigWatcher(Path config, Listener listener) {
-        this.config = config;
+        this(Collections.singletonList(config), ConfigHelper.getKubeConfigPaths(), listener);
+    }
+
+    /**
+     * Watch the files and load the config merged from them on changes.
+     */
+    public ConfigWatcher(List<Path> configs, Listener listener) {
+        this(configs, configs, listener);
+    }
+
+    private ConfigWatcher(List<Path> configs, List<Path> loaded, Listener listener) {
+        this.configs = configs;
+        this.loaded = loaded;
         this.listener = listener;
     }
 
+    public void addDiffListener(DiffListener listener) {
+        diffListeners.add(listener);
+    }
+
+    public void removeDiffListener(DiffListener listener) {
+        diffListeners.remove(listener);
+    }
+
+    /**
+     * Watch the config until the thread is interrupted or {@link #close()} is called, as before the watcher used the
+     * shared {@link ConfigWatchService}. Returns immediately if none of the files can be watched.
+     */
     @Override
     public void run() {
-        runOnConfigChange(() -> {
-            Config config = loadConfig();
-            if (config != null) {
-                listener.onUpdate(this, config);
+        CountDownLatch latch;
+        synchronized (this) {
+            start();
+            if (registrations.isEmpty()) {
+                return;
             }
-        });
-    }
-
-    protected Config loadConfig() {
+            latch = closed;
+        }
         try {
-            return ConfigHelper.loadKubeConfig();
-        } catch (IOException e) {
-                return null;
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            close();
         }
     }
 
-    private void runOnConfigChange(Runnable runnable) {
-        try (WatchService service = newWatchService()) {
-            registerWatchService(service);
-            WatchKey key;
-            while ((key = service.take()) != null) {
-                key.pollEvents().stream()
-                        .filter(this::isConfigPath)
-                        .forEach((Void) -> runnable.run());
-                key.reset();
+    /**
+     * Start watching the config, returns immediately.
+     */
+    public synchronized void start() {
+        if (!registrations.isEmpty()) {
+            return;
+        }
+        closed = new CountDownLatch(1);
+        synchronized (reloading) {
+            current = loadConfig();
+        }
+        for (Path config : configs) {
+            try {
+                registrations.add(getWatchService().register(config, () -> onChange(config)));
+            } catch (IOException e) {
+                LOGGER.warn("Could not watch " + config + ": " + e.getLocalizedMessage());
             }
-        } catch (IOException | InterruptedException e) {
-            e.printStackTrace();
         }
     }
 
+    /**
+     * Stop watching the config.
+     */
+    @Override
+    public synchronized void close() {
+        registrations.forEach(ConfigWatchService.Registration::close);
+        registrations.clear();
+        closed.countDown();
+    }
+
+    protected ConfigWatchService getWatchService() {
+        return ConfigWatchService.getInstance();
+    }
+
+    /**
+     * @deprecated the files are watched by the shared {@link ConfigWatchService}, this method is no longer called
+     */
+    @Deprecated
     protected WatchService newWatchService() throws IOException {
         return FileSystems.getDefault().newWatchService();
     }
 
-    @NotNull
-    private void registerWatchService(WatchService service) throws IOException {
-        HighSensitivityRegistrar modifier = new HighSensitivityRegistrar();
-        modifier.registerService(getWatchedPath(),
-                new WatchEvent.Kind[]{
-                        StandardWatchEventKinds.ENTRY_MODIFY,
-                        StandardWatchEventKinds.ENTRY_DELETE},
-                service);
+    /**
+     * Called for each change of a watched file, the config is only reloaded if true is returned.
+     *
+     * @deprecated the files are watched by the shared {@link ConfigWatchService}, the event is built from the path
+     * of the changed file and only its context is set
+     */
+    @Deprecated
+    protected boolean isConfigPath(WatchEvent<?> event) {
+        return event.context() instanceof Path
+                && configs.stream().anyMatch(config -> config.getParent().resolve((Path) event.context()).equals(config));
     }
 
-    protected boolean isConfigPath(WatchEvent<?> event) {
-        Path path = getWatchedPath().resolve((Path) event.context());
-        return path.equals(config);
+    protected Config loadConfig() {
+        try {
+            return ConfigHelper.loadKubeConfig(loaded);
+        } catch (IOException e) {
+                return null;
+        }
     }
 
-    private Path getWatchedPath() {
-        return config.getParent();
+    /**
+     * Reload the config, the changes of several files are reloaded and notified one after the other so that each diff
+     * is computed from the config notified before.
+     */
+    private void onChange(Path config) {
+        if (!isConfigPath(new ChangeEvent(config.getFileName()))) {
+            return;
+        }
+        synchronized (reloading) {
+            Config loaded = loadConfig();
+            if (loaded == null || Objects.equals(loaded, current)) {
+                return;
+            }
+            ConfigDiff diff = ConfigDiff.compute(current, loaded);
+            // the listeners are handed loaded, the watcher keeps its own copy to compute the next diff
+            current = new ConfigBuilder(loaded).build();
+            if (listener != null) {
+                listener.onUpdate(this, loaded);
+            }
+            if (!diff.isEmpty()) {
+                diffListeners.forEach(diffListener -> diffListener.onChange(this, diff));
+            }
+        }
     }
 
+    /**
+     * The change of a watched file handed to {@link #isConfigPath(WatchEvent)}.
+     */
+    private static class ChangeEvent implements WatchEvent<Path> {
+        private final Path context;
+
+        private ChangeEvent(Path context) {
+            this.context = context;
+        }
+
+        @Override
+        public Kind<Path> kind() {
+            return StandardWatchEventKinds.ENTRY_MODIFY;
+        }
+
+        @Override
+        public int count() {
+            return 1;
+        }
+
+        @Override
+        public Path context() {
+            return context;
+        }
+    }
 }
@@ -10,45 +10,80 @@
  ******************************************************************************/
 package com.redhat.devtools.intellij.common.utils;
 
+import com.intellij.ide.util.DelegatingProgressIndicator;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.progress.ProgressIndicator;
 import com.intellij.openapi.progress.ProgressManager;
 import com.intellij.openapi.progress.Task;
-import com.intellij.openapi.ui.Messages;
 import com.intellij.util.io.HttpRequests;
 import com.redhat.devtools.intellij.common.CommonConstants;
 import com.twelvemonkeys.lang.Platform;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.compress.archivers.ArchiveEntry;
 import org.apache.commons.compress.archivers.ArchiveInputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
 import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
 import org.apache.commons.compress.archivers.zip.ZipArchiveInputStream;
+import org.apache.commons.compress.archivers.zip.ZipFile;
 import org.apache.commons.compress.compressors.CompressorException;
 import org.apache.commons.compress.compressors.CompressorStreamFactory;
+import org.apache.commons.compress.compressors.zstandard.ZstdUtils;
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.CloseShieldInputStream;
 import org.apache.commons.lang.StringUtils;
 import org.jetbrains.annotations.NotNull;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedReader;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.StringReader;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.function.UnaryOperator;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
 
 public class DownloadHelper {
     private static final UnaryOperator<InputStream> UNCOMPRESSOR = (input -> {
         try {
-            return new CompressorStreamFactory().createCompressorInputStream(input);
+            // gzip and bzip2 files of parallel compressors are made of several concatenated members
+            return new CompressorStreamFactory(true).createCompressorInputStream(input);
         } catch (CompressorException e) {
             throw new RuntimeException(e);
         }
@@ -60,12 +95,39 @@ public class DownloadHelper {
 
     private static final Map<String, UnaryOperator<InputStream>> MAPPERS = new HashMap<>();
 
+    /**
+     * The size of the buffers used to copy compressed entries, can be set with the
+     * com.redhat.devtools.intellij.common.extractBufferSize system property.
+     */
+    private static final int BUFFER_SIZE = Integer.getInteger("com.redhat.devtools.intellij.common.extractBufferSize", 256 * 1024);
+
+    /**
+     * The number of uncompressed chunks a parallel uncompressor can get ahead of the archive extraction.
+     */
+    private static final int READ_AHEAD_CHUNKS = 8;
+
+    /**
+     * The in flight downloads keyed by command path, concurrent callers for the same tool and version share them.
+     */
+    private static final Map<Path, CompletableFuture<String>> DOWNLOADS = new ConcurrentHashMap<>();
+
     static {
         MAPPERS.put("gz", UNCOMPRESSOR);
+        MAPPERS.put("bz2", UNCOMPRESSOR);
+        MAPPERS.put("xz", UNCOMPRESSOR);
+        MAPPERS.put("zst", UNCOMPRESSOR);
         MAPPERS.put("zip", UNZIP);
         MAPPERS.put("tar", UNTAR);
     }
 
+    /**
+     * Limits the number of tools downloaded at the same time by all callers, can be set with the
+     * com.redhat.devtools.intellij.common.maxConcurrentDownloads system property.
+     */
+    private static final Semaphore DOWNLOAD_SLOTS = new Semaphore(Integer.getInteger("com.redhat.devtools.intellij.common.maxConcurrentDownloads", 4));
+
+    private volatile DownloadPolicy downloadPolicy = DownloadPolicy.PROMPT;
+
     private DownloadHelper() {
     }
 
@@ -90,7 +152,9 @@ public class DownloadHelper {
          *       "versionCmd": "version", //the argument(s) to add to cmdFileName to get the version
          *       "versionExtractRegExp": "", //the regular expression to extract the version string from the version command
          *       "versionMatchRegExpr": "", //the regular expression use to match the extracted version to decide if download if required
+         *       "versionRange": "", //optional, the range of compatible versions such as ">=1.0 <2", see VersionRange
          *       "baseDir": "" //the basedir to install to, a sub folder named after version will be created, can use $HOME
+         *       "parallelUncompress": false //optional, uncompress on a separate thread while the archive is extracted
          *       "platforms": {
          *         "win": {
          *           "url": "https://tool.com/tool/v1.0.0/odo-windows-amd64.exe.tar.gz",
@@ -105,7 +169,11 @@ public class DownloadHelper {
          *         "lnx": {
          *           "url": "https://tool.com/tool/v1.0.0/odo-linux-amd64.tar.gz",
          *           "cmdFileName": "odo",
-         *           "dlFileName": "odo-linux-amd64.gz"
+         *           "cmdSha256": "", //optional, the SHA-256 checksum of the command, shares it through the BlobStore
+         *           "dlFileName": "odo-linux-amd64.gz",
+         *           "dlSha256": "", //optional, the SHA-256 checksum of the downloaded file
+         *           "streamed": false, //optional, uncompress while downloading instead of downloading to a file first
+         *           "includes": ["LICENSE", "completions/*"] //optional, the archive entries to extract with the command, all if not set
          *         }
          *       }
          *     }
@@ -119,99 +187,459 @@ public class DownloadHelper {
          * @throws IOException
          */
     public String downloadIfRequired(String toolName, URL url) throws IOException {
+        Provisioning provisioning = new Provisioning(toolName, ConfigHelper.loadToolsConfig(url), url);
+        CompletableFuture<String> download = new CompletableFuture<>();
+        CompletableFuture<String> inFlight = DOWNLOADS.putIfAbsent(provisioning.path, download);
+        if (inFlight != null) {
+            return await(toolName, inFlight);
+        }
+        try {
+            download.complete(downloadIfRequired(provisioning));
+        } catch (IOException | RuntimeException e) {
+            download.completeExceptionally(e);
+        } finally {
+            DOWNLOADS.remove(provisioning.path, download);
+        }
+        return join(download);
+    }
+
+    private String downloadIfRequired(Provisioning provisioning) throws IOException {
+        if (!probe(provisioning) && isDownloadAllowed(provisioning)) {
+            provisioning.command = runWithProgress("Downloading " + provisioning.toolName,
+                    indicator -> install(provisioning.platform, provisioning.path, provisioning.tool.isParallelUncompress(), indicator));
+        }
+        return provisioning.command;
+    }
+
+    /**
+     * Download the tools that are missing or not compatible, see {@link #downloadIfRequired(String, URL)}. The
+     * configuration is loaded once and the tools are registered as in-flight downloads before anything else, so that
+     * a concurrent call for one of them waits for this one instead of asking the {@link DownloadPolicy} again. The
+     * tools are then probed in parallel and the tools the {@link DownloadPolicy} allows are downloaded concurrently,
+     * reporting to a single progress. Probes and downloads run on the IO lane of the {@link TaskScheduler}. The
+     * number of concurrent downloads is limited for all callers by the
+     * com.redhat.devtools.intellij.common.maxConcurrentDownloads system property.
+     *
+     * @param toolNames the names of the tools to download
+     * @param url the URL to the tool description file
+     * @return the command paths keyed by tool name, in the order of toolNames
+     * @throws IOException if a tool is not in the configuration or cannot be downloaded
+     */
+    public Map<String, String> downloadIfRequired(Collection<String> toolNames, URL url) throws IOException {
         ToolsConfig config = ConfigHelper.loadToolsConfig(url);
-        ToolsConfig.Tool tool = config.getTools().get(toolName);
-        if (tool == null) {
-            throw new IOException("Tool " + toolName + " not found in config file " + url);
-        }
-        ToolsConfig.Platform platform = tool.getPlatforms().get(Platform.os().id());
-        String command = platform.getCmdFileName();
-        String version = getVersionFromPath(tool, platform);
-        if (!areCompatible(version, tool.getVersionMatchRegExpr())) {
-            Path path = Paths.get(tool.getBaseDir().replace("$HOME", CommonConstants.HOME_FOLDER), "cache", tool.getVersion(), command);
-            if (!Files.exists(path)) {
-                final Path dlFilePath = path.resolveSibling(platform.getDlFileName());
-                final String cmd = path.toString();
-                if (isDownloadAllowed(toolName, version, tool.getVersion())) {
-                    command = ProgressManager.getInstance().run(new Task.WithResult<String, IOException>(null, "Downloading " + toolName, true) {
-                        @Override
-                        public String compute(@NotNull ProgressIndicator progressIndicator) throws IOException {
-                            return HttpRequests.request(platform.getUrl().toString()).connect(request -> {
-                               downloadFile(request.getInputStream(), dlFilePath, progressIndicator, request.getConnection().getContentLength());
-                               if (progressIndicator.isCanceled()) {
-                                   throw new IOException("Cancelled");
-                               } else {
-                                   uncompress(dlFilePath, path);
-                                   return cmd;
-                               }
-                            });
-                        }
-                    });
-                }
+        List<Provisioning> provisionings = new ArrayList<>();
+        for (String toolName : toolNames) {
+            provisionings.add(new Provisioning(toolName, config, url));
+        }
+        List<Provisioning> owned = new ArrayList<>();
+        Map<Provisioning, CompletableFuture<String>> downloads = new LinkedHashMap<>();
+        for (Provisioning provisioning : provisionings) {
+            CompletableFuture<String> download = new CompletableFuture<>();
+            CompletableFuture<String> inFlight = DOWNLOADS.putIfAbsent(provisioning.path, download);
+            if (inFlight == null) {
+                owned.add(provisioning);
+                downloads.put(provisioning, download);
             } else {
-                command = path.toString();
+                downloads.put(provisioning, inFlight);
             }
         }
-        return command;
+        try {
+            downloadIfRequired(owned, downloads);
+        } catch (IOException | RuntimeException e) {
+            owned.forEach(provisioning -> downloads.get(provisioning).completeExceptionally(e));
+            throw e;
+        } finally {
+            owned.forEach(provisioning -> DOWNLOADS.remove(provisioning.path, downloads.get(provisioning)));
+        }
+        Map<String, String> commands = new LinkedHashMap<>();
+        IOException failure = null;
+        for (Provisioning provisioning : provisionings) {
+            try {
+                commands.put(provisioning.toolName, await(provisioning.toolName, downloads.get(provisioning)));
+            } catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return commands;
     }
 
-    public CompletableFuture<String> downloadIfRequiredAsync(String toolName, URL url) {
-        CompletableFuture<String> result = new CompletableFuture<>();
-        ApplicationManager.getApplication().invokeLater(() -> {
+    /**
+     * Probe the tools and download the missing ones, completing the download of each tool with its command or its
+     * failure.
+     */
+    private void downloadIfRequired(List<Provisioning> provisionings, Map<Provisioning, CompletableFuture<String>> downloads) throws IOException {
+        List<Future<Boolean>> probes = invokeAll(provisionings.stream()
+                .map(provisioning -> (Callable<Boolean>) () -> probe(provisioning))
+                .collect(Collectors.toList()));
+        List<Provisioning> installs = new ArrayList<>();
+        for (int i = 0; i < provisionings.size(); i++) {
+            Provisioning provisioning = provisionings.get(i);
             try {
-                result.complete(downloadIfRequired(toolName, url));
+                if (!get(probes.get(i)) && isDownloadAllowed(provisioning)) {
+                    installs.add(provisioning);
+                } else {
+                    downloads.get(provisioning).complete(provisioning.command);
+                }
             } catch (IOException e) {
-                result.completeExceptionally(e);
+                downloads.get(provisioning).completeExceptionally(e);
+            }
+        }
+        if (!installs.isEmpty()) {
+            String names = installs.stream().map(provisioning -> provisioning.toolName).collect(Collectors.joining(", "));
+            runWithProgress("Downloading " + names, indicator -> installAll(installs, downloads, indicator));
+        }
+    }
+
+    private Void installAll(List<Provisioning> installs, Map<Provisioning, CompletableFuture<String>> downloads, ProgressIndicator indicator) throws IOException {
+        AggregatedProgress progress = new AggregatedProgress(indicator, installs.size());
+        List<Callable<String>> tasks = new ArrayList<>();
+        for (int i = 0; i < installs.size(); i++) {
+            Provisioning provisioning = installs.get(i);
+            ProgressIndicator toolIndicator = progress.getIndicator(i);
+            tasks.add(() -> install(provisioning.platform, provisioning.path, provisioning.tool.isParallelUncompress(), toolIndicator));
+        }
+        List<Future<String>> results = invokeAll(tasks);
+        for (int i = 0; i < installs.size(); i++) {
+            Provisioning provisioning = installs.get(i);
+            try {
+                provisioning.command = get(results.get(i));
+                downloads.get(provisioning).complete(provisioning.command);
+            } catch (IOException | RuntimeException e) {
+                downloads.get(provisioning).completeExceptionally(e);
+            }
+        }
+        return null;
+    }
+
+    private static <T> List<Future<T>> invokeAll(List<Callable<T>> tasks) throws IOException {
+        try {
+            return TaskScheduler.getInstance().invokeAll(TaskScheduler.Lane.IO, tasks);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Cancelled", e);
+        }
+    }
+
+    private static <T> T get(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            } else if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } catch (CancellationException e) {
+            throw new IOException("Cancelled", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Cancelled", e);
+        }
+    }
+
+    /**
+     * Find a command compatible with the tool configuration: on the PATH, already installed or in the
+     * {@link BlobStore}.
+     *
+     * @return true if found, false if the tool needs to be downloaded
+     */
+    private boolean probe(Provisioning provisioning) throws IOException {
+        provisioning.command = provisioning.platform.getCmdFileName();
+        provisioning.version = getVersionFromPath(provisioning.toolName, provisioning.tool, provisioning.platform);
+        if (provisioning.tool.isCompatible(provisioning.version)) {
+            return true;
+        }
+        if (isInstalled(provisioning.platform, provisioning.path) || linkFromStore(provisioning.platform, provisioning.path)) {
+            provisioning.command = provisioning.path.toString();
+            return true;
+        }
+        return false;
+    }
+
+    private boolean isDownloadAllowed(Provisioning provisioning) {
+        return downloadPolicy.isDownloadAllowed(provisioning.toolName, provisioning.version, provisioning.tool.getVersion());
+    }
+
+    /**
+     * Run the task with a progress: a modal one when called from the event dispatch thread, the progress of the
+     * calling task if any, otherwise a background task the calling thread waits for.
+     */
+    private <T> T runWithProgress(String title, ProgressTask<T> task) throws IOException {
+        if (ApplicationManager.getApplication().isDispatchThread()) {
+            return ProgressManager.getInstance().run(new Task.WithResult<T, IOException>(null, title, true) {
+                @Override
+                public T compute(@NotNull ProgressIndicator progressIndicator) throws IOException {
+                    return task.compute(progressIndicator);
+                }
+            });
+        }
+        ProgressIndicator indicator = ProgressManager.getInstance().getProgressIndicator();
+        if (indicator != null) {
+            return task.compute(indicator);
+        }
+        CompletableFuture<T> result = new CompletableFuture<>();
+        ProgressManager.getInstance().run(new Task.Backgroundable(null, title, true) {
+            @Override
+            public void run(@NotNull ProgressIndicator progressIndicator) {
+                try {
+                    result.complete(task.compute(progressIndicator));
+                } catch (Throwable e) {
+                    result.completeExceptionally(e);
+                }
+            }
+
+            @Override
+            public void onCancel() {
+                result.completeExceptionally(new IOException(title + " cancelled"));
+            }
+
+            @Override
+            public void onFinished() {
+                // the task may end without being run, for example if disposed before it started
+                result.completeExceptionally(new IOException(title + " did not complete"));
             }
         });
-        return result;
+        return join(result);
     }
 
-    private boolean isDownloadAllowed(String tool, String currentVersion, String requiredVersion) {
-        return Messages.showYesNoCancelDialog(StringUtils.isEmpty(currentVersion) ? tool + " not found , do you want to download " + tool + " " + requiredVersion + " ?" : tool + " " + currentVersion + " found, required version is " + requiredVersion + ", do you want to download " + tool + " ?", tool + " tool required", Messages.getQuestionIcon()) == Messages.YES;
+    /**
+     * Check that the command exists and, if the platform has a command checksum, that it is not corrupted. A
+     * corrupted command is deleted.
+     */
+    private boolean isInstalled(ToolsConfig.Platform platform, Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return false;
+        }
+        if (StringUtils.isNotBlank(platform.getCmdSha256()) && !BlobStore.getInstance().verify(path, platform.getCmdSha256())) {
+            Files.delete(path);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Link the command from the {@link BlobStore} if another tool or plugin already installed the same binary.
+     */
+    private boolean linkFromStore(ToolsConfig.Platform platform, Path path) throws IOException {
+        String digest = platform.getCmdSha256();
+        return StringUtils.isNotBlank(digest)
+                && BlobStore.getInstance().verify(BlobStore.getInstance().getBlob(digest), digest)
+                && BlobStore.getInstance().link(digest, path);
     }
 
-    private boolean areCompatible(String version, String versionMatchRegExpr) {
-        boolean compatible = true;
-        if (StringUtils.isNotBlank(versionMatchRegExpr)) {
-            Pattern pattern = Pattern.compile(versionMatchRegExpr);
-            compatible = pattern.matcher(version).matches();
-        } else if (StringUtils.isBlank(version)) {
-            compatible = false;
+    /**
+     * Uncompress the tool into a temporary folder then move the files in place. The command is moved last so that it
+     * only exists once the installation is complete. Unless the platform is streamed, the archive is first downloaded
+     * next to the version folder, where an interrupted download can be resumed from.
+     */
+    private String install(ToolsConfig.Platform platform, Path path, boolean parallel, ProgressIndicator progressIndicator) throws IOException {
+        Path versionDir = path.getParent();
+        Path tmpDir = Files.createTempDirectory(Files.createDirectories(versionDir.getParent()), versionDir.getFileName() + "-");
+        try {
+            Path cmd = tmpDir.resolve(path.getFileName());
+            EntryFilter filter = new EntryFilter(platform.getCmdFileName(), platform.getIncludes());
+            acquireDownloadSlot(progressIndicator);
+            if (platform.isStreamed()) {
+                try {
+                    downloadAndUncompress(platform, cmd, filter, parallel, progressIndicator);
+                } finally {
+                    DOWNLOAD_SLOTS.release();
+                }
+            } else {
+                Path dlFilePath = versionDir.resolveSibling(versionDir.getFileName() + "-" + platform.getDlFileName());
+                try {
+                    new RangeDownloader().download(platform.getUrl(), dlFilePath, progressIndicator);
+                } finally {
+                    DOWNLOAD_SLOTS.release();
+                }
+                if (StringUtils.isNotBlank(platform.getDlSha256())) {
+                    try (InputStream input = Files.newInputStream(dlFilePath)) {
+                        verifyChecksum(platform, DigestUtils.sha256Hex(input), dlFilePath);
+                    }
+                }
+                uncompress(dlFilePath, cmd, filter, parallel);
+                Files.delete(dlFilePath);
+            }
+            Files.createDirectories(versionDir);
+            List<Path> files;
+            try (Stream<Path> stream = Files.list(tmpDir)) {
+                files = stream.filter(file -> !file.equals(cmd)).collect(Collectors.toList());
+            }
+            for (Path file : files) {
+                Path target = versionDir.resolve(file.getFileName());
+                if (Files.isDirectory(file)) {
+                    FileUtils.deleteDirectory(target.toFile());
+                }
+                move(file, target);
+            }
+            if (StringUtils.isNotBlank(platform.getCmdSha256())) {
+                BlobStore store = BlobStore.getInstance();
+                store.put(cmd, platform.getCmdSha256());
+                store.link(platform.getCmdSha256(), path);
+                TaskScheduler.getInstance().submit(TaskScheduler.Lane.IO, () -> {
+                    store.gc();
+                    return null;
+                });
+            } else {
+                move(cmd, path);
+            }
+            return path.toString();
+        } finally {
+            FileUtils.deleteQuietly(tmpDir.toFile());
         }
-        return compatible;
     }
 
-    private String getVersionFromPath(ToolsConfig.Tool tool, ToolsConfig.Platform platform) {
-        String version = "";
+    private static void acquireDownloadSlot(ProgressIndicator progressIndicator) throws IOException {
         try {
-            Pattern pattern = Pattern.compile(tool.getVersionExtractRegExp());
-            String[] arguments = tool.getVersionCmd().split(" ");
-            String output = ExecHelper.execute(platform.getCmdFileName(), false, arguments);
-            try (BufferedReader reader = new BufferedReader(new StringReader(output))) {
-                version = reader.lines().
-                        map(line -> pattern.matcher(line)).
-                        filter(matcher -> matcher.matches()).
-                        map(matcher -> matcher.group(1)).
-                        findFirst().orElse("");
-            }
-        } catch (IOException e) {
+            while (!DOWNLOAD_SLOTS.tryAcquire(100, TimeUnit.MILLISECONDS)) {
+                if (progressIndicator.isCanceled()) {
+                    throw new IOException("Cancelled");
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Cancelled", e);
         }
-        return version;
+    }
 
+    private static void move(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
     }
 
-    private static void downloadFile(InputStream input, Path dlFileName, ProgressIndicator progressIndicator, long size) throws IOException {
-        byte[] buffer = new byte[4096];
-        Files.createDirectories(dlFileName.getParent());
-        try (OutputStream output = Files.newOutputStream(dlFileName)) {
-            int lg;
-            long accumulated = 0;
-            while (((lg = input.read(buffer)) > 0) && !progressIndicator.isCanceled()) {
-                output.write(buffer, 0, lg);
-                accumulated += lg;
-                progressIndicator.setFraction((double) accumulated / size);
+    /**
+     * Wait for a download owned by another caller. The owner may need the event dispatch thread to ask the
+     * {@link DownloadPolicy}, so the event dispatch thread is never blocked: it waits under a modal progress that
+     * keeps dispatching events and can be cancelled, and shows the pending download dialogs itself since they would
+     * otherwise be held back by its modal progress.
+     */
+    private static String await(String toolName, CompletableFuture<String> inFlight) throws IOException {
+        if (inFlight.isDone() || !ApplicationManager.getApplication().isDispatchThread()) {
+            return join(inFlight);
+        }
+        DownloadPrompts.showPending();
+        return ProgressManager.getInstance().run(new Task.WithResult<String, IOException>(null, "Waiting for " + toolName, true) {
+            @Override
+            public String compute(@NotNull ProgressIndicator progressIndicator) throws IOException {
+                return join(inFlight, progressIndicator);
+            }
+        });
+    }
+
+    private static <T> T join(CompletableFuture<T> download, ProgressIndicator progressIndicator) throws IOException {
+        while (true) {
+            try {
+                return download.get(100, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                if (progressIndicator.isCanceled()) {
+                    throw new IOException("Cancelled");
+                }
+                DownloadPrompts.showPending();
+            } catch (ExecutionException e) {
+                // rethrow the cause as join does
+                return join(download);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Cancelled", e);
+            }
+        }
+    }
+
+    private static <T> T join(CompletableFuture<T> download) throws IOException {
+        try {
+            return download.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            } else if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            } else if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
             }
+            throw e;
+        }
+    }
+
+    /**
+     * Same as {@link #downloadIfRequired(String, URL)} but the configuration is loaded, the version probed and the
+     * tool downloaded on a background thread, so several tools can be set up in parallel. Only the prompt of the
+     * {@link DownloadPolicy}, if any, runs on the event dispatch thread. Callers on the event dispatch thread must
+     * not wait for the result.
+     *
+     * @param toolName the name of the tool to download
+     * @param url the URL to the tool description file
+     * @return the command path
+     */
+    public CompletableFuture<String> downloadIfRequiredAsync(String toolName, URL url) {
+        CompletableFuture<String> result = new CompletableFuture<>();
+        try {
+            TaskScheduler.getInstance().submit(TaskScheduler.Lane.IO, () -> {
+                try {
+                    result.complete(downloadIfRequired(toolName, url));
+                } catch (IOException | RuntimeException e) {
+                    result.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    public DownloadPolicy getDownloadPolicy() {
+        return downloadPolicy;
+    }
+
+    /**
+     * Set the policy deciding if missing or incompatible tools are downloaded, {@link DownloadPolicy#PROMPT} by
+     * default.
+     */
+    public void setDownloadPolicy(DownloadPolicy downloadPolicy) {
+        this.downloadPolicy = downloadPolicy;
+    }
+
+    /**
+     * Get the version of the tool found on the PATH. The version command is only run if the binary or the tool
+     * configuration changed since the last probe recorded in the {@link ToolIndex}.
+     */
+    private String getVersionFromPath(String toolName, ToolsConfig.Tool tool, ToolsConfig.Platform platform) {
+        Path command = ToolIndex.resolveOnPath(platform.getCmdFileName());
+        if (command == null) {
+            return "";
+        }
+        String fingerprint = tool.getVersionCmd() + '\n' + tool.getVersionExtractRegExp();
+        String version = ToolIndex.getInstance().getVersion(toolName, command, fingerprint);
+        if (version == null) {
+            try {
+                version = probeVersion(tool, command);
+                ToolIndex.getInstance().putVersion(toolName, command, fingerprint, version);
+            } catch (IOException e) {
+                version = "";
+            }
+        }
+        return version;
+    }
+
+    private String probeVersion(ToolsConfig.Tool tool, Path command) throws IOException {
+        Pattern pattern = tool.getVersionExtractPattern();
+        String output = ExecHelper.execute(command.toString(), false, tool.getVersionArguments());
+        try (BufferedReader reader = new BufferedReader(new StringReader(output))) {
+            return reader.lines().
+                    map(line -> pattern.matcher(line)).
+                    filter(matcher -> matcher.matches()).
+                    map(matcher -> matcher.group(1)).
+                    findFirst().orElse("");
         }
     }
 
@@ -224,40 +652,362 @@ public class DownloadHelper {
             }
     }
 
-    private InputStream mapStream(String filename, InputStream input) {
-        String extension;
-        while (((extension = FilenameUtils.getExtension(filename)) != null) && MAPPERS.containsKey(extension)) {
-            filename = FilenameUtils.removeExtension(filename);
-            input = MAPPERS.get(extension).apply(input);
+    /**
+     * Apply the mappers matching the format of the content, detected from its magic bytes or from the file extension
+     * if it has none. When parallel, each uncompressor runs on its own thread, ahead of the mappers and the extraction
+     * consuming its output.
+     */
+    private InputStream mapStream(String filename, InputStream input, boolean parallel) throws IOException {
+        while (true) {
+            if (!input.markSupported()) {
+                input = new BufferedInputStream(input, BUFFER_SIZE);
+            }
+            ArchiveFormat format = getFormat(ArchiveFormat.detect(input), filename);
+            if (format == null) {
+                return input;
+            }
+            if (format == ArchiveFormat.ZSTD && !ZstdUtils.isZstdCompressionAvailable()) {
+                throw new IOException("Cannot uncompress " + filename + ", the optional com.github.luben:zstd-jni library is not available");
+            }
+            if (MAPPERS.containsKey(FilenameUtils.getExtension(filename))) {
+                filename = FilenameUtils.removeExtension(filename);
+            }
+            input = MAPPERS.get(format.getExtension()).apply(input);
+            if (!format.isCompression()) {
+                return input;
+            }
+            if (parallel) {
+                input = new ReadAheadInputStream(input, BUFFER_SIZE, READ_AHEAD_CHUNKS);
+            }
+        }
+    }
+
+    private ArchiveFormat getFormat(ArchiveFormat detected, String filename) {
+        return detected != null ? detected : ArchiveFormat.fromExtension(FilenameUtils.getExtension(filename));
+    }
+
+    /**
+     * Uncompress the archive while it is being downloaded: the HTTP stream feeds the uncompressors directly so that
+     * the archive is never written to disk. The checksum, if any, is computed on the fly.
+     */
+    private void downloadAndUncompress(ToolsConfig.Platform platform, Path cmd, EntryFilter filter, boolean parallel, ProgressIndicator progressIndicator) throws IOException {
+        HttpRequests.request(platform.getUrl().toString()).connect(request -> {
+            MessageDigest digest = DigestUtils.getSha256Digest();
+            try (InputStream input = new DigestInputStream(new ProgressInputStream(request.getInputStream(), progressIndicator,
+                    request.getConnection().getContentLengthLong()), digest)) {
+                uncompress(new BufferedInputStream(new CloseShieldInputStream(input), BUFFER_SIZE), platform.getDlFileName(), cmd, filter, parallel);
+                IOUtils.skip(input, Long.MAX_VALUE);
+            }
+            if (StringUtils.isNotBlank(platform.getDlSha256())) {
+                verifyChecksum(platform, Hex.encodeHexString(digest.digest()), cmd.getParent());
+            }
+            return null;
+        });
+    }
+
+    private void verifyChecksum(ToolsConfig.Platform platform, String checksum, Path downloaded) throws IOException {
+        if (!platform.getDlSha256().equalsIgnoreCase(checksum)) {
+            FileUtils.deleteQuietly(downloaded.toFile());
+            throw new IOException("Checksum mismatch for " + platform.getUrl() + ", expected " + platform.getDlSha256() + " but got " + checksum);
+        }
+    }
+
+    /**
+     * Uncompress the downloaded file. Raw binaries, plain tar archives and stored zip entries are not compressed so
+     * their content is transferred from the file channel without going through the heap. Only the entries accepted by
+     * the filter are extracted.
+     */
+    private void uncompress(Path dlFilePath, Path cmd, EntryFilter filter, boolean parallel) throws IOException {
+        byte[] header = new byte[ArchiveFormat.HEADER_SIZE];
+        int length;
+        try (InputStream input = Files.newInputStream(dlFilePath)) {
+            length = IOUtils.read(input, header);
+        }
+        ArchiveFormat format = getFormat(ArchiveFormat.detect(header, length), dlFilePath.toString());
+        if (format == null) {
+            try (FileChannel channel = FileChannel.open(dlFilePath, StandardOpenOption.READ)) {
+                transfer(channel, 0, channel.size(), cmd, true);
+            }
+        } else if (format == ArchiveFormat.TAR) {
+            untar(dlFilePath, cmd, filter);
+        } else if (format == ArchiveFormat.ZIP) {
+            unzip(dlFilePath, cmd, filter);
+        } else {
+            try (InputStream input = new BufferedInputStream(Files.newInputStream(dlFilePath), BUFFER_SIZE)) {
+                uncompress(input, dlFilePath.toString(), cmd, filter, parallel);
+            }
+        }
+    }
+
+    /**
+     * The tar stream is only used to parse the headers, the data of each entry is transferred from its offset in the
+     * archive. Skipped entries are not read, the channel position is moved past them.
+     * Sparse entries need the tar stream to be expanded.
+     */
+    private void untar(Path dlFilePath, Path cmd, EntryFilter filter) throws IOException {
+        try (FileChannel channel = FileChannel.open(dlFilePath, StandardOpenOption.READ);
+             TarArchiveInputStream tarStream = new TarArchiveInputStream(new ChannelInputStream(channel))) {
+            TarArchiveEntry entry;
+            while (!filter.isComplete() && (entry = tarStream.getNextTarEntry()) != null) {
+                Path destination = getDestination(cmd, entry, filter);
+                if (destination == null) {
+                    continue;
+                }
+                if (entry.isGNUSparse()) {
+                    save(tarStream, destination, entry.getSize(), isExecutable(entry, destination, cmd, filter));
+                } else {
+                    transfer(channel, tarStream.getBytesRead(), entry.getSize(), destination, isExecutable(entry, destination, cmd, filter));
+                }
+            }
+        }
+    }
+
+    /**
+     * The entries are looked up in the central directory, their names are matched by the filter as in the streaming
+     * path so that entries stored as ./name are found, and the data of the selected entries is accessed directly.
+     */
+    private void unzip(Path dlFilePath, Path cmd, EntryFilter filter) throws IOException {
+        try (ZipFile zipFile = new ZipFile(dlFilePath.toFile());
+             FileChannel channel = FileChannel.open(dlFilePath, StandardOpenOption.READ)) {
+            for (ZipArchiveEntry entry : Collections.list(zipFile.getEntriesInPhysicalOrder())) {
+                if (filter.isComplete()) {
+                    break;
+                }
+                Path destination = getDestination(cmd, entry, filter);
+                if (destination == null) {
+                    continue;
+                }
+                if (entry.getMethod() == ZipEntry.STORED && !entry.getGeneralPurposeBit().usesEncryption()) {
+                    transfer(channel, entry.getDataOffset(), entry.getCompressedSize(), destination, isExecutable(entry, destination, cmd, filter));
+                } else {
+                    try (InputStream input = zipFile.getInputStream(entry)) {
+                        save(input, destination, -1L, isExecutable(entry, destination, cmd, filter));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the path to extract the entry to, creating its parent folders.
+     *
+     * @return the path or null if the entry is not extracted
+     */
+    private Path getDestination(Path cmd, ArchiveEntry entry, EntryFilter filter) throws IOException {
+        if (!filter.accept(entry.getName())) {
+            return null;
+        }
+        Path folder = cmd.getParent().normalize();
+        Path destination = folder.resolve(entry.getName()).normalize();
+        if (!destination.startsWith(folder)) {
+            throw new IOException("Entry " + entry.getName() + " is outside of the extraction folder");
+        }
+        if (entry.isDirectory()) {
+            Files.createDirectories(destination);
+            return null;
+        }
+        Files.createDirectories(destination.getParent());
+        return destination;
+    }
+
+    /**
+     * The command is always executable. When all the entries are extracted they are all made executable, as they
+     * always were, otherwise the included entries are executable if the archive records them as executable or does
+     * not record their mode, such as zip archives without unix attributes.
+     */
+    private boolean isExecutable(ArchiveEntry entry, Path destination, Path cmd, EntryFilter filter) {
+        if (filter.isAll() || destination.equals(cmd.normalize())) {
+            return true;
+        }
+        int mode = 0;
+        if (entry instanceof TarArchiveEntry) {
+            mode = ((TarArchiveEntry) entry).getMode();
+        } else if (entry instanceof ZipArchiveEntry) {
+            mode = ((ZipArchiveEntry) entry).getUnixMode();
+        }
+        return mode == 0 || (mode & 0111) != 0;
+    }
+
+    private void transfer(FileChannel source, long position, long length, Path destination, boolean executable) throws IOException {
+        try (FileChannel output = FileChannel.open(destination, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            long transferred = 0;
+            while (transferred < length) {
+                long count = source.transferTo(position + transferred, length - transferred, output);
+                if (count <= 0) {
+                    throw new IOException("Unexpected end of archive while extracting " + destination.getFileName());
+                }
+                transferred += count;
+            }
+        }
+        if (executable) {
+            destination.toFile().setExecutable(true);
         }
-        return input;
     }
 
-    private void uncompress(Path dlFilePath, Path cmd) throws IOException {
-        try (InputStream input = new BufferedInputStream(Files.newInputStream(dlFilePath))) {
-            InputStream subStream = mapStream(dlFilePath.toString(), input);
+    private void uncompress(InputStream input, String dlFileName, Path cmd, EntryFilter filter, boolean parallel) throws IOException {
+        try (InputStream subStream = mapStream(dlFileName, input, parallel)) {
             if (subStream instanceof ArchiveInputStream) {
                 ArchiveEntry entry;
 
-                while ((entry = ((ArchiveInputStream)subStream).getNextEntry()) != null) {
-                    save(subStream, cmd.resolveSibling(entry.getName()), entry.getSize());
+                while (!filter.isComplete() && (entry = ((ArchiveInputStream)subStream).getNextEntry()) != null) {
+                    Path destination = getDestination(cmd, entry, filter);
+                    if (destination != null) {
+                        save(subStream, destination, entry.getSize(), isExecutable(entry, destination, cmd, filter));
+                    }
                 }
             } else {
-                save(subStream, cmd, -1L);
+                save(subStream, cmd, -1L, true);
             }
-            } catch (RuntimeException e) {
+        } catch (RuntimeException e) {
             throw new IOException(e);
         }
     }
 
-    private void save(InputStream source, Path destination, long length) throws IOException {
+    private void save(InputStream source, Path destination, long length, boolean executable) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
         try (OutputStream stream = Files.newOutputStream(destination)) {
             if (length == -1L) {
-                IOUtils.copy(source, stream);
+                IOUtils.copyLarge(source, stream, buffer);
             } else {
-                IOUtils.copyLarge(source, stream, 0L, length);
+                IOUtils.copyLarge(source, stream, 0L, length, buffer);
+            }
+        }
+        if (executable) {
+            destination.toFile().setExecutable(true);
+        }
+    }
+
+    @FunctionalInterface
+    private interface ProgressTask<T> {
+        T compute(ProgressIndicator progressIndicator) throws IOException;
+    }
+
+    /**
+     * The configuration and state of a tool being provisioned.
+     */
+    private static class Provisioning {
+        private final String toolName;
+        private final ToolsConfig.Tool tool;
+        private final ToolsConfig.Platform platform;
+        private final Path path;
+        private String version;
+        private String command;
+
+        private Provisioning(String toolName, ToolsConfig config, URL url) throws IOException {
+            this.toolName = toolName;
+            this.tool = config.getTools().get(toolName);
+            if (tool == null) {
+                throw new IOException("Tool " + toolName + " not found in config file " + url);
+            }
+            this.platform = tool.getPlatforms().get(Platform.os().id());
+            this.path = Paths.get(tool.getBaseDir().replace("$HOME", CommonConstants.HOME_FOLDER), "cache", tool.getVersion(), platform.getCmdFileName());
+        }
+    }
+
+    /**
+     * Combines the progress of several downloads into a single indicator, each download counting for the same share.
+     */
+    private static class AggregatedProgress {
+        private final ProgressIndicator indicator;
+        private final double[] fractions;
+
+        private AggregatedProgress(ProgressIndicator indicator, int count) {
+            this.indicator = indicator;
+            this.fractions = new double[count];
+            indicator.setIndeterminate(false);
+        }
+
+        private synchronized void setFraction(int index, double fraction) {
+            fractions[index] = fraction;
+            double total = 0;
+            for (double value : fractions) {
+                total += value;
+            }
+            indicator.setFraction(total / fractions.length);
+        }
+
+        private ProgressIndicator getIndicator(int index) {
+            return new DelegatingProgressIndicator(indicator) {
+                @Override
+                public void setFraction(double fraction) {
+                    AggregatedProgress.this.setFraction(index, fraction);
+                }
+
+                @Override
+                public void setText(String text) {
+                }
+            };
+        }
+    }
+
+    /**
+     * An input stream reading from a file channel which skips by moving the channel position instead of reading.
+     */
+    private static class ChannelInputStream extends InputStream {
+        private final FileChannel channel;
+
+        private ChannelInputStream(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(@NotNull byte[] b, int off, int len) throws IOException {
+            return channel.read(ByteBuffer.wrap(b, off, len));
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long position = channel.position();
+            long skipped = Math.max(0, Math.min(n, channel.size() - position));
+            channel.position(position + skipped);
+            return skipped;
+        }
+    }
+
+    private static class ProgressInputStream extends FilterInputStream {
+        private final ProgressIndicator progressIndicator;
+        private final long size;
+        private long accumulated = 0;
+
+        private ProgressInputStream(InputStream delegate, ProgressIndicator progressIndicator, long size) {
+            super(delegate);
+            this.progressIndicator = progressIndicator;
+            this.size = size;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int c = super.read();
+            if (c != -1) {
+                progress(1);
+            }
+            return c;
+        }
+
+        @Override
+        public int read(@NotNull byte[] b, int off, int len) throws IOException {
+            int lg = super.read(b, off, len);
+            if (lg > 0) {
+                progress(lg);
+            }
+            return lg;
+        }
+
+        private void progress(int lg) throws IOException {
+            if (progressIndicator.isCanceled()) {
+                throw new IOException("Cancelled");
+            }
+            accumulated += lg;
+            if (size > 0) {
+                progressIndicator.setFraction((double) accumulated / size);
             }
         }
-        destination.toFile().setExecutable(true);
     }
 }
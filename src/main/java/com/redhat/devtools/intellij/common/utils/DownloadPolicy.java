@@ -0,0 +1,73 @@
+/*******************************************************************************
+ * Copyright (c) 2020 Red Hat, Inc.
+ * Distributed under license by Red Hat, Inc. All rights reserved.
+ * This program is made available under the terms of the
+ * Eclipse Public License v2.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ * Red Hat, Inc.
+ ******************************************************************************/
+package com.redhat.devtools.intellij.common.utils;
+
+import com.intellij.ide.util.PropertiesComponent;
+import com.intellij.openapi.ui.Messages;
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Decide if a tool that is missing or not compatible can be downloaded. Policies can be called from any thread, the
+ * prompting ones show their dialog on the event dispatch thread.
+ */
+@FunctionalInterface
+public interface DownloadPolicy {
+    /**
+     * @param tool the name of the tool
+     * @param currentVersion the version found on the PATH, empty if the tool was not found
+     * @param requiredVersion the version that would be downloaded
+     * @return true if the tool can be downloaded
+     */
+    boolean isDownloadAllowed(String tool, String currentVersion, String requiredVersion);
+
+    /**
+     * Download without asking, for headless and automated runs.
+     */
+    DownloadPolicy ALWAYS = (tool, currentVersion, requiredVersion) -> true;
+
+    /**
+     * Never download, the tool is expected on the PATH.
+     */
+    DownloadPolicy NEVER = (tool, currentVersion, requiredVersion) -> false;
+
+    /**
+     * Ask the user every time.
+     */
+    DownloadPolicy PROMPT = (tool, currentVersion, requiredVersion) -> ask(tool, currentVersion, requiredVersion) == Messages.YES;
+
+    /**
+     * Ask the user once per tool and required version, the answer is remembered across IDE restarts. Cancelling the
+     * dialog is not remembered.
+     */
+    DownloadPolicy PROMPT_ONCE = (tool, currentVersion, requiredVersion) -> {
+        String key = "com.redhat.devtools.intellij.common.download." + tool + "." + requiredVersion;
+        PropertiesComponent properties = PropertiesComponent.getInstance();
+        if (properties.isValueSet(key)) {
+            return properties.getBoolean(key, false);
+        }
+        int answer = ask(tool, currentVersion, requiredVersion);
+        if (answer != Messages.CANCEL) {
+            properties.setValue(key, String.valueOf(answer == Messages.YES));
+        }
+        return answer == Messages.YES;
+    };
+
+    /**
+     * Show the download dialog on the event dispatch thread in the default modality state. A caller on the event
+     * dispatch thread waiting for the download under a modal progress shows the dialog itself, see
+     * {@link DownloadPrompts}.
+     *
+     * @return {@link Messages#YES}, {@link Messages#NO} or {@link Messages#CANCEL}
+     */
+    static int ask(String tool, String currentVersion, String requiredVersion) {
+        return DownloadPrompts.ask(() -> Messages.showYesNoCancelDialog(StringUtils.isEmpty(currentVersion) ? tool + " not found , do you want to download " + tool + " " + requiredVersion + " ?" : tool + " " + currentVersion + " found, required version is " + requiredVersion + ", do you want to download " + tool + " ?", tool + " tool required", Messages.getQuestionIcon()));
+    }
+}
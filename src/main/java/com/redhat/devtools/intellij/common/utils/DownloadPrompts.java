@@ -0,0 +1,93 @@
+/*******************************************************************************
+ * Copyright (c) 2020 Red Hat, Inc.
+ * Distributed under license by Red Hat, Inc. All rights reserved.
+ * This program is made available under the terms of the
+ * Eclipse Public License v2.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ * Red Hat, Inc.
+ ******************************************************************************/
+package com.redhat.devtools.intellij.common.utils;
+
+import com.intellij.openapi.application.Application;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.ModalityState;
+import com.intellij.openapi.ui.Messages;
+
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * The download dialogs asked from background threads. A dialog is shown on the event dispatch thread in the default
+ * modality state, by whichever comes first: the event dispatch thread once it is idle, or the event dispatch thread
+ * waiting for a download under a modal progress, see {@link #showPending()}, so that the dialog of the download it
+ * waits for is not held back by its own progress.
+ */
+class DownloadPrompts {
+    private static final Queue<Prompt> PENDING = new ConcurrentLinkedQueue<>();
+
+    private DownloadPrompts() {
+    }
+
+    /**
+     * @return the answer of the dialog, {@link Messages#CANCEL} if interrupted while waiting for it
+     */
+    static int ask(Supplier<Integer> dialog) {
+        Application application = ApplicationManager.getApplication();
+        if (application.isDispatchThread()) {
+            return dialog.get();
+        }
+        Prompt prompt = new Prompt(dialog);
+        PENDING.add(prompt);
+        try {
+            application.invokeLater(prompt::show, ModalityState.defaultModalityState());
+            return prompt.answer.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Messages.CANCEL;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw (RuntimeException) e.getCause();
+        } finally {
+            PENDING.remove(prompt);
+        }
+    }
+
+    /**
+     * Show the pending dialogs. Called from the event dispatch thread, or from the thread of a modal progress of the
+     * event dispatch thread in which case the dialogs are shown in the modality state of the progress.
+     */
+    static void showPending() {
+        Prompt prompt;
+        while ((prompt = PENDING.poll()) != null) {
+            UIHelper.executeInUI(prompt::show);
+        }
+    }
+
+    private static class Prompt {
+        private final Supplier<Integer> dialog;
+        private final AtomicBoolean shown = new AtomicBoolean();
+        private final CompletableFuture<Integer> answer = new CompletableFuture<>();
+
+        private Prompt(Supplier<Integer> dialog) {
+            this.dialog = dialog;
+        }
+
+        private void show() {
+            if (shown.compareAndSet(false, true)) {
+                try {
+                    answer.complete(dialog.get());
+                } catch (RuntimeException | Error e) {
+                    answer.completeExceptionally(e);
+                }
+            }
+        }
+    }
+}
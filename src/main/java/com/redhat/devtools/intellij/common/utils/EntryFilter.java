@@ -0,0 +1,112 @@
+/*******************************************************************************
+ * Copyright (c) 2020 Red Hat, Inc.
+ * Distributed under license by Red Hat, Inc. All rights reserved.
+ * This program is made available under the terms of the
+ * Eclipse Public License v2.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ * Red Hat, Inc.
+ ******************************************************************************/
+package com.redhat.devtools.intellij.common.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Select the entries to extract from a tool archive: the command and the entries matching the includes. Includes are
+ * entry names or globs where * matches within a folder, ** across folders and ? a single character. Without includes
+ * every entry is extracted.
+ */
+public class EntryFilter {
+    private final boolean all;
+    private final Set<String> names = new LinkedHashSet<>();
+    private final List<Pattern> patterns = new ArrayList<>();
+    private final Set<String> found = new HashSet<>();
+
+    public EntryFilter(String command, List<String> includes) {
+        this.all = includes == null || includes.isEmpty();
+        if (!all) {
+            names.add(command);
+            for (String include : includes) {
+                if (include.indexOf('*') >= 0 || include.indexOf('?') >= 0) {
+                    patterns.add(toPattern(normalize(include)));
+                } else {
+                    names.add(normalize(include));
+                }
+            }
+        }
+    }
+
+    public boolean isAll() {
+        return all;
+    }
+
+    /**
+     * @return the entry names to extract, empty if the entries are selected by globs only
+     */
+    public Set<String> getNames() {
+        return Collections.unmodifiableSet(names);
+    }
+
+    /**
+     * @return true if entries are only selected by name, in which case extraction can stop once they are all found
+     */
+    public boolean isLiteral() {
+        return !all && patterns.isEmpty();
+    }
+
+    public boolean accept(String entryName) {
+        if (all) {
+            return true;
+        }
+        String name = normalize(entryName);
+        if (names.contains(name)) {
+            found.add(name);
+            return true;
+        }
+        return patterns.stream().anyMatch(pattern -> pattern.matcher(name).matches());
+    }
+
+    /**
+     * @return true if all the entries to extract were accepted and the rest of the archive can be skipped
+     */
+    public boolean isComplete() {
+        return isLiteral() && found.containsAll(names);
+    }
+
+    private static String normalize(String name) {
+        String normalized = name.replace('\\', '/');
+        while (normalized.startsWith("./")) {
+            normalized = normalized.substring(2);
+        }
+        return normalized;
+    }
+
+    private static Pattern toPattern(String glob) {
+        StringBuilder regexp = new StringBuilder();
+        int start = 0;
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            if (c == '*' || c == '?') {
+                regexp.append(Pattern.quote(glob.substring(start, i)));
+                if (c == '?') {
+                    regexp.append("[^/]");
+                } else if (i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+                    regexp.append(".*");
+                    i++;
+                } else {
+                    regexp.append("[^/]*");
+                }
+                start = i + 1;
+            }
+        }
+        regexp.append(Pattern.quote(glob.substring(start)));
+        return Pattern.compile(regexp.toString());
+    }
+}
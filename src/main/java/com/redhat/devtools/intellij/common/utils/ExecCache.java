@@ -0,0 +1,194 @@
+/*******************************************************************************
+ * Copyright (c) 2020 Red Hat, Inc.
+ * Distributed under license by Red Hat, Inc. All rights reserved.
+ * This program is made available under the terms of the
+ * Eclipse Public License v2.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ * Red Hat, Inc.
+ ******************************************************************************/
+package com.redhat.devtools.intellij.common.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import static com.redhat.devtools.intellij.common.CommonConstants.HOME_FOLDER;
+
+/**
+ * Memoizes the output of read only commands run through {@link ExecHelper#execute(String, File, String...)}.
+ * Entries are keyed by executable, arguments, working directory and the size and modification time of every kube
+ * config listed in KUBECONFIG so that switching context invalidates them. Entries expire a time to live after the
+ * command completed and the least recently used ones are evicted once the cache is full. Concurrent calls for the same
+ * command share a single process execution, failures are not cached.
+ */
+public class ExecCache {
+    interface Command {
+        String execute(String executable, File workingDirectory, String... arguments) throws IOException;
+    }
+
+    private final long ttl;
+    private final int maxSize;
+    private final Command command;
+    private final Supplier<List<Long>> kubeConfigStamp;
+    private final Map<Key, CachedOutput> entries;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public ExecCache(long ttl, TimeUnit unit, int maxSize) {
+        this(ttl, unit, maxSize, ExecHelper::execute, ExecCache::getKubeConfigStamp);
+    }
+
+    ExecCache(long ttl, TimeUnit unit, int maxSize, Command command, Supplier<List<Long>> kubeConfigStamp) {
+        this.ttl = unit.toNanos(ttl);
+        this.maxSize = maxSize;
+        this.command = command;
+        this.kubeConfigStamp = kubeConfigStamp;
+        this.entries = new LinkedHashMap<Key, CachedOutput>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, CachedOutput> eldest) {
+                return size() > ExecCache.this.maxSize;
+            }
+        };
+    }
+
+    public String execute(String executable, File workingDirectory, String... arguments) throws IOException {
+        Key key = new Key(executable, workingDirectory, arguments, kubeConfigStamp.get());
+        CachedOutput entry;
+        boolean owner = false;
+        synchronized (entries) {
+            entry = entries.get(key);
+            if (entry != null && !entry.isExpired()) {
+                hits.incrementAndGet();
+            } else {
+                misses.incrementAndGet();
+                entry = new CachedOutput();
+                entries.put(key, entry);
+                owner = true;
+            }
+        }
+        if (owner) {
+            try {
+                entry.complete(command.execute(executable, workingDirectory, arguments));
+            } catch (IOException | RuntimeException e) {
+                remove(key, entry);
+                entry.output.completeExceptionally(e);
+            }
+        }
+        return get(entry.output);
+    }
+
+    public String execute(String executable, String... arguments) throws IOException {
+        return execute(executable, new File(HOME_FOLDER), arguments);
+    }
+
+    public void invalidate() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    private void remove(Key key, CachedOutput entry) {
+        synchronized (entries) {
+            entries.remove(key, entry);
+        }
+    }
+
+    private String get(CompletableFuture<String> output) throws IOException {
+        try {
+            return output.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw new IOException(e.getCause().getLocalizedMessage(), e.getCause());
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * @return the size and modification time of each kube config, 0 for the ones that do not exist
+     */
+    private static List<Long> getKubeConfigStamp() {
+        List<Long> stamp = new ArrayList<>();
+        for (Path path : ConfigHelper.getKubeConfigPaths()) {
+            File file = path.toFile();
+            stamp.add(file.length());
+            stamp.add(file.lastModified());
+        }
+        return stamp;
+    }
+
+    private class CachedOutput {
+        private final CompletableFuture<String> output = new CompletableFuture<>();
+        private volatile long completed;
+
+        private void complete(String value) {
+            completed = System.nanoTime();
+            output.complete(value);
+        }
+
+        private boolean isExpired() {
+            return output.isDone() && System.nanoTime() - completed > ttl;
+        }
+    }
+
+    private static class Key {
+        private final String executable;
+        private final File workingDirectory;
+        private final String[] arguments;
+        private final List<Long> kubeConfigStamp;
+
+        private Key(String executable, File workingDirectory, String[] arguments, List<Long> kubeConfigStamp) {
+            this.executable = executable;
+            this.workingDirectory = workingDirectory;
+            this.arguments = arguments.clone();
+            this.kubeConfigStamp = kubeConfigStamp;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Key key = (Key) o;
+            return Objects.equals(kubeConfigStamp, key.kubeConfigStamp)
+                    && Objects.equals(executable, key.executable)
+                    && Objects.equals(workingDirectory, key.workingDirectory)
+                    && Arrays.equals(arguments, key.arguments);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Objects.hash(executable, workingDirectory, kubeConfigStamp) + Arrays.hashCode(arguments);
+        }
+    }
+}
@@ -19,7 +19,11 @@ import com.jediterm.terminal.ProcessTtyConnector;
 import com.jediterm.terminal.TtyConnector;
 import org.apache.commons.exec.CommandLine;
 import org.apache.commons.exec.DefaultExecutor;
+import org.apache.commons.exec.ExecuteException;
+import org.apache.commons.exec.ExecuteResultHandler;
+import org.apache.commons.exec.ExecuteWatchdog;
 import org.apache.commons.exec.PumpStreamHandler;
+import org.apache.commons.exec.Watchdog;
 import org.apache.xmlgraphics.util.WriterOutputStream;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -27,6 +31,7 @@ import org.jetbrains.plugins.terminal.AbstractTerminalRunner;
 import org.jetbrains.plugins.terminal.TerminalOptionsProvider;
 import org.jetbrains.plugins.terminal.TerminalView;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FilterInputStream;
 import java.io.IOException;
@@ -36,25 +41,44 @@ import java.io.StringWriter;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.Arrays;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 import static com.redhat.devtools.intellij.common.CommonConstants.HOME_FOLDER;
 
 public class ExecHelper {
-  private static final ScheduledExecutorService SERVICE = Executors.newScheduledThreadPool(Runtime.getRuntime().availableProcessors());
-
+  /**
+   * Run the runnable on the {@link TaskScheduler} IO lane once the delay expired. If the lane is saturated the hand
+   * over is retried until there is room in its queue, the runnable is only dropped if the scheduler is disposed.
+   */
   public static void executeAfter(Runnable runnable, long delay, TimeUnit unit) {
-    SERVICE.schedule(runnable, delay, unit);
+    TaskScheduler.getInstance().schedule(TaskScheduler.Lane.IO, runnable, delay, unit);
   }
 
+  /**
+   * Run the runnable on the {@link TaskScheduler} IO lane. If the lane is saturated the caller waits for room in its
+   * queue, except the event dispatch thread which never waits: its runnable is then handed over to the lane later, as
+   * with {@link #executeAfter(Runnable, long, TimeUnit)}.
+   *
+   * @throws RejectedExecutionException if the scheduler is disposed
+   */
   public static void submit(Runnable runnable) {
-    SERVICE.submit(runnable);
+    TaskScheduler scheduler = TaskScheduler.getInstance();
+    try {
+      scheduler.submit(TaskScheduler.Lane.IO, runnable);
+    } catch (RejectedExecutionException e) {
+      scheduler.schedule(TaskScheduler.Lane.IO, runnable, 0, TimeUnit.MILLISECONDS);
+    }
   }
 
-  public static String execute(String executable, boolean checkExitCode, File workingDirectory, String... arguments) throws IOException {
+  private static DefaultExecutor createExecutor(boolean checkExitCode, File workingDirectory) {
     DefaultExecutor executor = new DefaultExecutor() {
       @Override
       public boolean isFailure(int exitValue) {
@@ -65,10 +89,15 @@ public class ExecHelper {
         }
       }
     };
+    executor.setWorkingDirectory(workingDirectory);
+    return executor;
+  }
+
+  public static String execute(String executable, boolean checkExitCode, File workingDirectory, String... arguments) throws IOException {
+    DefaultExecutor executor = createExecutor(checkExitCode, workingDirectory);
     StringWriter writer = new StringWriter();
     PumpStreamHandler handler = new PumpStreamHandler(new WriterOutputStream(writer));
     executor.setStreamHandler(handler);
-    executor.setWorkingDirectory(workingDirectory);
     CommandLine command = new CommandLine(executable).addArguments(arguments, false);
     try {
       executor.execute(command);
@@ -90,24 +119,365 @@ public class ExecHelper {
     return execute(executable, checkExitCode, new File(HOME_FOLDER), arguments);
   }
 
-  private static class RedirectedStream extends FilterInputStream {
+  /**
+   * Execute the command and push its standard output and standard error line by line to the given consumers as soon
+   * as they are produced, instead of buffering the whole output until the process exits. Consumers are called from
+   * the stream pumping threads: a slow consumer slows down the reading of the process output, which in turn blocks
+   * the process once the pipe buffer is full, so memory usage stays bounded whatever the size of the output.
+   *
+   * @param executable the executable to run
+   * @param checkExitCode if true a non zero exit code is reported as an {@link IOException}
+   * @param workingDirectory the working directory of the process
+   * @param outputConsumer the consumer for the standard output lines
+   * @param errorConsumer the consumer for the standard error lines, if null the standard error lines are sent to
+   *                      outputConsumer, which is then never called concurrently
+   * @param arguments the arguments of the command
+   * @return the exit code of the process
+   * @throws IOException if the process cannot be launched or if checkExitCode is true and the process failed
+   */
+  public static int execute(String executable, boolean checkExitCode, File workingDirectory, Consumer<String> outputConsumer, Consumer<String> errorConsumer, String... arguments) throws IOException {
+    DefaultExecutor executor = createExecutor(checkExitCode, workingDirectory);
+    if (errorConsumer == null) {
+      Consumer<String> consumer = outputConsumer;
+      outputConsumer = line -> {
+        synchronized (consumer) {
+          consumer.accept(line);
+        }
+      };
+      errorConsumer = outputConsumer;
+    }
+    LineOutputStream output = new LineOutputStream(outputConsumer);
+    LineOutputStream error = new LineOutputStream(errorConsumer);
+    executor.setStreamHandler(new PumpStreamHandler(output, error));
+    CommandLine command = new CommandLine(executable).addArguments(arguments, false);
+    try {
+      return executor.execute(command);
+    } finally {
+      output.close();
+      error.close();
+    }
+  }
+
+  public static int execute(String executable, File workingDirectory, Consumer<String> outputConsumer, String... arguments) throws IOException {
+    return execute(executable, true, workingDirectory, outputConsumer, null, arguments);
+  }
+
+  public static int execute(String executable, Consumer<String> outputConsumer, String... arguments) throws IOException {
+    return execute(executable, true, new File(HOME_FOLDER), outputConsumer, null, arguments);
+  }
+
+  public static class ExecResult {
+    private final int exitCode;
+    private final String stdout;
+    private final String stderr;
+    private final Duration wallTime;
+
+    public ExecResult(int exitCode, String stdout, String stderr, Duration wallTime) {
+      this.exitCode = exitCode;
+      this.stdout = stdout;
+      this.stderr = stderr;
+      this.wallTime = wallTime;
+    }
+
+    public int getExitCode() {
+      return exitCode;
+    }
+
+    public String getStdout() {
+      return stdout;
+    }
+
+    public String getStderr() {
+      return stderr;
+    }
+
+    public Duration getWallTime() {
+      return wallTime;
+    }
+  }
+
+  /**
+   * Execute the command without blocking the calling thread. The returned future completes when the process exits,
+   * exceptionally with a {@link TimeoutException} if the process did not exit before the timeout, or with an
+   * {@link IOException} if the process could not be launched or, when checkExitCode is true, returned a non zero exit
+   * code. Cancelling the future destroys the process and, on Java 9 and later, its descendants, even if the process
+   * is not started yet.
+   * <p>
+   * The calling thread is not blocked, but commons-exec still waits for the process on a thread of its own, one per
+   * running process, which also completes the future.
+   *
+   * @param executable the executable to run
+   * @param checkExitCode if true a non zero exit code completes the future exceptionally
+   * @param workingDirectory the working directory of the process
+   * @param timeout the maximum time the process is allowed to run, 0 or less means no timeout
+   * @param unit the unit of the timeout
+   * @param arguments the arguments of the command
+   * @return the future result of the execution
+   */
+  public static CompletableFuture<ExecResult> executeAsync(String executable, boolean checkExitCode, File workingDirectory, long timeout, TimeUnit unit, String... arguments) {
+    CompletableFuture<ExecResult> result = new CompletableFuture<>();
+    DefaultExecutor executor = createExecutor(checkExitCode, workingDirectory);
+    StringWriter output = new StringWriter();
+    StringWriter error = new StringWriter();
+    executor.setStreamHandler(new PumpStreamHandler(new WriterOutputStream(output), new WriterOutputStream(error)));
+    CancellableWatchdog watchdog = new CancellableWatchdog(timeout > 0 ? unit.toMillis(timeout) : ExecuteWatchdog.INFINITE_TIMEOUT);
+    executor.setWatchdog(watchdog);
+    CommandLine command = new CommandLine(executable).addArguments(arguments, false);
+    long start = System.nanoTime();
+    try {
+      executor.execute(command, new ExecuteResultHandler() {
+        @Override
+        public void onProcessComplete(int exitValue) {
+          if (watchdog.killedProcess()) {
+            completeKilled();
+          } else {
+            result.complete(new ExecResult(exitValue, output.toString(), error.toString(), Duration.ofNanos(System.nanoTime() - start)));
+          }
+        }
+
+        @Override
+        public void onProcessFailed(ExecuteException e) {
+          if (watchdog.killedProcess()) {
+            completeKilled();
+          } else {
+            result.completeExceptionally(new IOException(e.getLocalizedMessage() + " " + error.toString(), e));
+          }
+        }
+
+        private void completeKilled() {
+          if (!result.isDone()) {
+            result.completeExceptionally(new TimeoutException(executable + " did not complete within " + timeout + " " + unit));
+          }
+        }
+      });
+      result.whenComplete((res, e) -> {
+        if (result.isCancelled()) {
+          watchdog.cancel();
+        }
+      });
+    } catch (IOException e) {
+      result.completeExceptionally(e);
+    }
+    return result;
+  }
+
+  public static CompletableFuture<ExecResult> executeAsync(String executable, File workingDirectory, long timeout, TimeUnit unit, String... arguments) {
+    return executeAsync(executable, true, workingDirectory, timeout, unit, arguments);
+  }
+
+  public static CompletableFuture<ExecResult> executeAsync(String executable, long timeout, TimeUnit unit, String... arguments) {
+    return executeAsync(executable, true, new File(HOME_FOLDER), timeout, unit, arguments);
+  }
+
+  public static CompletableFuture<ExecResult> executeAsync(String executable, String... arguments) {
+    return executeAsync(executable, true, new File(HOME_FOLDER), 0, TimeUnit.MILLISECONDS, arguments);
+  }
+
+  /**
+   * A watchdog that can be cancelled before the process is started, the process is then destroyed as soon as it is,
+   * and that destroys the descendants of the process along with it.
+   */
+  static class CancellableWatchdog extends ExecuteWatchdog {
+    private Process process;
+    private boolean cancelled;
+
+    CancellableWatchdog(long timeout) {
+      super(timeout);
+    }
+
+    @Override
+    public synchronized void start(Process process) {
+      this.process = process;
+      super.start(process);
+      if (cancelled) {
+        destroyProcess();
+      }
+    }
+
+    /**
+     * Destroy the process, or mark it to be destroyed once started, without waiting for it to start.
+     */
+    synchronized void cancel() {
+      cancelled = true;
+      if (process != null) {
+        destroyProcess();
+      }
+    }
+
+    @Override
+    public synchronized void timeoutOccured(Watchdog watchdog) {
+      // before the process so that its descendants are not reparented yet
+      destroyDescendants(process);
+      super.timeoutOccured(watchdog);
+    }
+  }
+
+  /**
+   * Destroy the descendants of the process through ProcessHandle, which is only available from Java 9.
+   */
+  private static void destroyDescendants(Process process) {
+    if (process == null) {
+      return;
+    }
+    try {
+      Class<?> handleClass = Class.forName("java.lang.ProcessHandle");
+      Method destroy = handleClass.getMethod("destroy");
+      Object handle = Process.class.getMethod("toHandle").invoke(process);
+      Stream<?> descendants = (Stream<?>) handleClass.getMethod("descendants").invoke(handle);
+      descendants.forEach(descendant -> {
+        try {
+          destroy.invoke(descendant);
+        } catch (IllegalAccessException | InvocationTargetException e) {
+          // descendant already exited or cannot be destroyed
+        }
+      });
+    } catch (ClassNotFoundException | NoSuchMethodException | IllegalAccessException | InvocationTargetException e) {
+      // Java 8, only the process is destroyed
+    }
+  }
+
+  /**
+   * An output stream that decodes the bytes written to it as UTF-8 lines and hands them over to a consumer. Lines
+   * longer than {@link #MAX_LINE_LENGTH} bytes are split on a character boundary so that the buffer never grows
+   * unbounded.
+   */
+  static class LineOutputStream extends OutputStream {
+    static final int MAX_LINE_LENGTH = 64 * 1024;
+
+    private final Consumer<String> consumer;
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(256);
+
+    LineOutputStream(Consumer<String> consumer) {
+      this.consumer = consumer;
+    }
+
+    @Override
+    public synchronized void write(int b) {
+      if (b == '\n') {
+        emit();
+      } else {
+        buffer.write(b);
+        if (buffer.size() >= MAX_LINE_LENGTH) {
+          split();
+        }
+      }
+    }
+
+    @Override
+    public synchronized void write(@NotNull byte[] b, int off, int len) {
+      int end = off + len;
+      int start = off;
+      for (int i = off; i < end; i++) {
+        if (b[i] == '\n') {
+          buffer.write(b, start, i - start);
+          emit();
+          start = i + 1;
+        } else if (buffer.size() + i + 1 - start >= MAX_LINE_LENGTH) {
+          buffer.write(b, start, i + 1 - start);
+          split();
+          start = i + 1;
+        }
+      }
+      buffer.write(b, start, end - start);
+    }
+
+    @Override
+    public synchronized void close() {
+      if (buffer.size() > 0) {
+        emit();
+      }
+    }
+
+    private void emit() {
+      byte[] bytes = buffer.toByteArray();
+      int length = bytes.length;
+      if (length > 0 && bytes[length - 1] == '\r') {
+        length--;
+      }
+      buffer.reset();
+      consumer.accept(new String(bytes, 0, length, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Emit the buffered bytes of a line that is too long, an incomplete character or a trailing CR is kept in the
+     * buffer for the next part of the line.
+     */
+    private void split() {
+      byte[] bytes = buffer.toByteArray();
+      int length = getCharacterBoundary(bytes, bytes.length);
+      if (length > 0 && bytes[length - 1] == '\r') {
+        length--;
+      }
+      buffer.reset();
+      buffer.write(bytes, length, bytes.length - length);
+      consumer.accept(new String(bytes, 0, length, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return the length of the bytes that only contain complete UTF-8 sequences
+     */
+    private static int getCharacterBoundary(byte[] bytes, int length) {
+      int lead = length - 1;
+      while (lead >= 0 && length - lead < 4 && (bytes[lead] & 0xC0) == 0x80) {
+        lead--;
+      }
+      if (lead < 0) {
+        return length;
+      }
+      int b = bytes[lead] & 0xFF;
+      int size = b >= 0xF0 ? 4 : b >= 0xE0 ? 3 : b >= 0xC0 ? 2 : 1;
+      return lead + size > length ? lead : length;
+    }
+  }
+
+  /**
+   * Translates LF into CRLF for the terminal. The delegate is read in chunks into an internal buffer which is then
+   * expanded into the caller buffer, a LF that does not fit is emitted by the next read.
+   * When delay is set, the end of stream is only reported once the terminal session is closed (see {@link #release()})
+   * so that the terminal tab stays open after the process exited. The wait happens outside of the monitor of the
+   * stream and is bounded in case the session is never released.
+   */
+  static class RedirectedStream extends FilterInputStream {
+    private static final int BUFFER_SIZE = 8192;
+    private static final long RELEASE_TIMEOUT = TimeUnit.HOURS.toMillis(1);
+
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int position = 0;
+    private int limit = 0;
     private boolean emitLF = false;
     private final boolean redirect;
     private final boolean delay;
+    private final long releaseTimeout;
+    private final CountDownLatch released = new CountDownLatch(1);
 
-    private RedirectedStream(InputStream delegate, boolean redirect, boolean delay) {
+    RedirectedStream(InputStream delegate, boolean redirect, boolean delay) {
+      this(delegate, redirect, delay, RELEASE_TIMEOUT);
+    }
+
+    RedirectedStream(InputStream delegate, boolean redirect, boolean delay, long releaseTimeout) {
       super(delegate);
       this.redirect = redirect;
       this.delay = delay;
+      this.releaseTimeout = releaseTimeout;
     }
 
     @Override
-    public synchronized int read() throws IOException {
+    public int read() throws IOException {
+      int c = readByte();
+      if (c == -1 && delay) {
+        awaitRelease();
+      }
+      return c;
+    }
+
+    private synchronized int readByte() throws IOException {
       if (emitLF) {
         emitLF = false;
         return '\n';
+      } else if (position == limit && !fill()) {
+        return -1;
       } else {
-        int c = super.read();
+        int c = buffer[position++] & 0xFF;
         if (redirect && c == '\n') {
           emitLF = true;
           c = '\r';
@@ -117,12 +487,20 @@ public class ExecHelper {
     }
 
     @Override
-    public synchronized int read(@NotNull byte[] b) throws IOException {
+    public int read(@NotNull byte[] b) throws IOException {
       return read(b, 0, b.length);
     }
 
     @Override
-    public synchronized int read(@NotNull byte[] b, int off, int len) throws IOException {
+    public int read(@NotNull byte[] b, int off, int len) throws IOException {
+      int count = readBytes(b, off, len);
+      if (count == -1 && delay) {
+        awaitRelease();
+      }
+      return count;
+    }
+
+    private synchronized int readBytes(byte[] b, int off, int len) throws IOException {
       if (b == null) {
         throw new NullPointerException();
       } else if (off < 0 || len < 0 || len > b.length - off) {
@@ -131,39 +509,114 @@ public class ExecHelper {
         return 0;
       }
 
-      int c = read();
-      if (c == -1) {
-        if (delay) {
+      int i = off;
+      int end = off + len;
+      if (emitLF) {
+        emitLF = false;
+        b[i++] = '\n';
+      }
+      while (i < end) {
+        if (position == limit) {
           try {
-            Thread.sleep(60000L);
-          } catch (InterruptedException e) {}
+            if ((i > off && in.available() <= 0) || !fill()) {
+              break;
+            }
+          } catch (IOException e) {
+            if (i == off) {
+              throw e;
+            }
+            break;
+          }
         }
-        return -1;
+        i = translate(b, i, end);
       }
-      b[off] = (byte)c;
+      return i == off ? -1 : i - off;
+    }
 
-      int i = 1;
+    private void awaitRelease() {
       try {
-        for (; i < len  && available() > 0; i++) {
-          c = read();
-          if (c == -1) {
-            break;
+        released.await(releaseTimeout, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    /**
+     * Let a read blocked at the end of the stream return.
+     */
+    void release() {
+      released.countDown();
+    }
+
+    @Override
+    public void close() throws IOException {
+      release();
+      super.close();
+    }
+
+    private int translate(byte[] b, int i, int end) {
+      if (!redirect) {
+        int count = Math.min(end - i, limit - position);
+        System.arraycopy(buffer, position, b, i, count);
+        position += count;
+        return i + count;
+      }
+      while (i < end && position < limit) {
+        byte c = buffer[position++];
+        if (c == '\n') {
+          b[i++] = '\r';
+          if (i < end) {
+            b[i++] = '\n';
+          } else {
+            emitLF = true;
           }
-          b[off + i] = (byte)c;
+        } else {
+          b[i++] = c;
         }
-      } catch (IOException ee) {}
+      }
       return i;
     }
+
+    private boolean fill() throws IOException {
+      int count = in.read(buffer, 0, buffer.length);
+      position = 0;
+      limit = Math.max(count, 0);
+      return count > 0;
+    }
+
+    @Override
+    public synchronized int available() throws IOException {
+      return (emitLF ? 1 : 0) + (limit - position) + in.available();
+    }
+
+    @Override
+    public synchronized long skip(long n) throws IOException {
+      long skipped = 0;
+      while (skipped < n && readByte() != -1) {
+        skipped++;
+      }
+      return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+      return false;
+    }
   }
+
   private static class RedirectedProcess extends Process {
     private final Process delegate;
-    private final InputStream inputStream;
+    private final RedirectedStream inputStream;
 
     private RedirectedProcess(Process delegate, boolean redirect, boolean delay) {
       this.delegate = delegate;
       inputStream = new RedirectedStream(delegate.getInputStream(), redirect, delay) {};
     }
 
+    private void release() {
+      inputStream.release();
+    }
+
     @Override
     public OutputStream getOutputStream() {
       return delegate.getOutputStream();
@@ -197,11 +650,14 @@ public class ExecHelper {
     @Override
     public void destroy() {
       delegate.destroy();
+      release();
     }
 
     @Override
     public Process destroyForcibly() {
-      return delegate.destroyForcibly();
+      Process process = delegate.destroyForcibly();
+      release();
+      return process;
     }
 
     @Override
@@ -252,6 +708,14 @@ public class ExecHelper {
           public boolean isConnected() {
             return true;
           }
+
+          @Override
+          public void close() {
+            super.close();
+            if (process instanceof RedirectedProcess) {
+              ((RedirectedProcess) process).release();
+            }
+          }
         };
       }
 
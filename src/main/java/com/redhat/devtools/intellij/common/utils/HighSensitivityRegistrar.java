@@ -14,6 +14,7 @@ import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.WatchEvent;
 import java.nio.file.WatchEvent.Modifier;
+import java.nio.file.WatchKey;
 import java.nio.file.WatchService;
 
 /**
@@ -63,14 +64,13 @@ public class HighSensitivityRegistrar {
 		}
 	}
 
-	public void registerService(Path path, WatchEvent.Kind<Path>[] kinds, WatchService service) throws IOException {
+	public WatchKey registerService(Path path, WatchEvent.Kind<Path>[] kinds, WatchService service) throws IOException {
 		if (isRequired()
 				&& exists()) {
-			path.register(service, kinds, get());
+			return path.register(service, kinds, get());
 		} else {
-			path.register(service, kinds);
+			return path.register(service, kinds);
 		}
-
 	}
 
 	/**
@@ -0,0 +1,191 @@
+/*******************************************************************************
+ * Copyright (c) 2020 Red Hat, Inc.
+ * Distributed under license by Red Hat, Inc. All rights reserved.
+ * This program is made available under the terms of the
+ * Eclipse Public License v2.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ * Red Hat, Inc.
+ ******************************************************************************/
+package com.redhat.devtools.intellij.common.utils;
+
+import io.fabric8.kubernetes.api.model.Config;
+import io.fabric8.kubernetes.api.model.ConfigBuilder;
+import io.fabric8.kubernetes.api.model.NamedAuthInfo;
+import io.fabric8.kubernetes.api.model.NamedCluster;
+import io.fabric8.kubernetes.api.model.NamedContext;
+import io.fabric8.kubernetes.api.model.NamedExtension;
+import org.apache.commons.lang.StringUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * Merge the kube configs listed in KUBECONFIG the way kubectl does and split a merged config back into its files.
+ * <ul>
+ *     <li>the first file defining a cluster, context, user or extension wins, later definitions are shadowed</li>
+ *     <li>the first file with a current context sets the current context</li>
+ *     <li>a modified entry is written to the file defining it, a new entry to the first file that exists</li>
+ * </ul>
+ */
+public class KubeConfigMerge {
+    private static final List<NamedList<?>> LISTS = Collections.unmodifiableList(Arrays.asList(
+            new NamedList<>(Config::getClusters, Config::setClusters, NamedCluster::getName),
+            new NamedList<>(Config::getContexts, Config::setContexts, NamedContext::getName),
+            new NamedList<>(Config::getUsers, Config::setUsers, NamedAuthInfo::getName),
+            new NamedList<>(Config::getExtensions, Config::setExtensions, NamedExtension::getName)));
+
+    private KubeConfigMerge() {
+    }
+
+    /**
+     * Merge the configs, the merged config shares its entries with the given configs.
+     *
+     * @param configs the configs in KUBECONFIG order, null for the files that do not exist
+     * @return the merged config
+     */
+    public static Config merge(List<Config> configs) {
+        Config merged = new ConfigBuilder().build();
+        for (NamedList<?> list : LISTS) {
+            list.merge(configs, merged);
+        }
+        for (Config config : configs) {
+            if (config == null) {
+                continue;
+            }
+            if (StringUtils.isEmpty(merged.getCurrentContext()) && StringUtils.isNotEmpty(config.getCurrentContext())) {
+                merged.setCurrentContext(config.getCurrentContext());
+            }
+            if (merged.getPreferences() == null) {
+                merged.setPreferences(config.getPreferences());
+            }
+            if (merged.getApiVersion() == null) {
+                merged.setApiVersion(config.getApiVersion());
+            }
+            if (merged.getKind() == null) {
+                merged.setKind(config.getKind());
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * Split a merged config into the files it was merged from. The entries shadowed by an earlier file are kept, the
+     * removed ones are deleted from the file that defined them. Preferences are left unchanged.
+     *
+     * @param merged the merged config, possibly modified
+     * @param configs the current configs of the files in KUBECONFIG order, null for the files that do not exist
+     * @return the new configs of the files, in the same order, null for the files that are still not needed
+     */
+    public static List<Config> split(Config merged, List<Config> configs) {
+        int target = getTarget(configs);
+        List<Config> split = new ArrayList<>(configs.size());
+        for (int i = 0; i < configs.size(); i++) {
+            Config config = configs.get(i);
+            if (config != null) {
+                split.add(new ConfigBuilder(config).build());
+            } else if (i == target) {
+                Config created = new ConfigBuilder().build();
+                created.setApiVersion(merged.getApiVersion());
+                created.setKind(merged.getKind());
+                split.add(created);
+            } else {
+                split.add(null);
+            }
+        }
+        for (NamedList<?> list : LISTS) {
+            list.split(merged, configs, split, target);
+        }
+        int currentContext = target;
+        for (int i = 0; i < configs.size(); i++) {
+            if (configs.get(i) != null && StringUtils.isNotEmpty(configs.get(i).getCurrentContext())) {
+                currentContext = i;
+                break;
+            }
+        }
+        split.get(currentContext).setCurrentContext(merged.getCurrentContext());
+        return split;
+    }
+
+    /**
+     * @return the index of the file new entries are written to: the first file that exists or the last one
+     */
+    public static int getTarget(List<Config> configs) {
+        for (int i = 0; i < configs.size(); i++) {
+            if (configs.get(i) != null) {
+                return i;
+            }
+        }
+        return configs.size() - 1;
+    }
+
+    private static class NamedList<T> {
+        private final Function<Config, List<T>> getter;
+        private final BiConsumer<Config, List<T>> setter;
+        private final Function<T, String> name;
+
+        private NamedList(Function<Config, List<T>> getter, BiConsumer<Config, List<T>> setter, Function<T, String> name) {
+            this.getter = getter;
+            this.setter = setter;
+            this.name = name;
+        }
+
+        private List<T> get(Config config) {
+            List<T> list = config == null ? null : getter.apply(config);
+            return list == null ? Collections.emptyList() : list;
+        }
+
+        private void merge(List<Config> configs, Config merged) {
+            Map<String, T> entries = new LinkedHashMap<>();
+            for (Config config : configs) {
+                for (T entry : get(config)) {
+                    entries.putIfAbsent(name.apply(entry), entry);
+                }
+            }
+            setter.accept(merged, new ArrayList<>(entries.values()));
+        }
+
+        private void split(Config merged, List<Config> configs, List<Config> split, int target) {
+            Map<String, Integer> origins = new HashMap<>();
+            for (int i = 0; i < configs.size(); i++) {
+                for (T entry : get(configs.get(i))) {
+                    origins.putIfAbsent(name.apply(entry), i);
+                }
+            }
+            Map<String, T> entries = new LinkedHashMap<>();
+            for (T entry : get(merged)) {
+                entries.putIfAbsent(name.apply(entry), entry);
+            }
+            for (int i = 0; i < configs.size(); i++) {
+                if (split.get(i) == null) {
+                    continue;
+                }
+                List<T> list = new ArrayList<>();
+                for (T entry : get(configs.get(i))) {
+                    String key = name.apply(entry);
+                    if (origins.get(key) != i) {
+                        list.add(entry);
+                    } else if (entries.containsKey(key)) {
+                        list.add(entries.get(key));
+                    }
+                }
+                if (i == target) {
+                    entries.forEach((key, entry) -> {
+                        if (!origins.containsKey(key)) {
+                            list.add(entry);
+                        }
+                    });
+                }
+                setter.accept(split.get(i), list);
+            }
+        }
+    }
+}
@@ -0,0 +1,210 @@
+/*******************************************************************************
+ * Copyright (c) 2020 Red Hat, Inc.
+ * Distributed under license by Red Hat, Inc. All rights reserved.
+ * This program is made available under the terms of the
+ * Eclipse Public License v2.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ * Red Hat, Inc.
+ ******************************************************************************/
+package com.redhat.devtools.intellij.common.utils;
+
+import com.intellij.openapi.diagnostic.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Detect changes with a {@link WatchService} on the folders of the watched files, all the folders are watched by a
+ * single thread. A folder that is no longer accessible, for example because it was deleted, is checked on the
+ * {@link TaskScheduler} timer until it reappears, it is then watched again and its files are reported as changed.
+ */
+public class NativeChangeDetector implements ChangeDetector {
+    private static final Logger LOGGER = Logger.getInstance(NativeChangeDetector.class);
+
+    @SuppressWarnings("unchecked")
+    private static final WatchEvent.Kind<Path>[] KINDS = new WatchEvent.Kind[]{
+            StandardWatchEventKinds.ENTRY_CREATE,
+            StandardWatchEventKinds.ENTRY_MODIFY,
+            StandardWatchEventKinds.ENTRY_DELETE};
+
+    private static final long REARM_INTERVAL = 1000;
+
+    private final Map<WatchKey, Path> keys = new HashMap<>();
+    private final Map<Path, WatchKey> folders = new HashMap<>();
+    private final Map<Path, Runnable> files = new HashMap<>();
+    private final Map<Path, ScheduledFuture<?>> rearms = new HashMap<>();
+    private WatchService service;
+
+    /**
+     * @return true if the default file system is watched by the native notifications of the OS, false if the JDK
+     * falls back to polling the watched folders, as on macOS
+     */
+    public static boolean isNative() {
+        try (WatchService service = FileSystems.getDefault().newWatchService()) {
+            return !service.getClass().getName().contains("Polling");
+        } catch (IOException | UnsupportedOperationException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public synchronized Closeable watch(Path file, Runnable onChange) throws IOException {
+        Path folder = file.getParent();
+        if (!folders.containsKey(folder) && !rearms.containsKey(folder)) {
+            WatchKey key = register(folder);
+            keys.put(key, folder);
+            folders.put(folder, key);
+        }
+        files.put(file, onChange);
+        return () -> unwatch(file);
+    }
+
+    protected WatchService newWatchService() throws IOException {
+        return FileSystems.getDefault().newWatchService();
+    }
+
+    private WatchKey register(Path folder) throws IOException {
+        if (service == null) {
+            service = newWatchService();
+            WatchService watchService = service;
+            Thread thread = new Thread(() -> processEvents(watchService), "intellij-common-config-watch");
+            thread.setDaemon(true);
+            thread.start();
+        }
+        // registering while the thread waits for events is supported by the WatchService
+        return new HighSensitivityRegistrar().registerService(folder, KINDS, service);
+    }
+
+    private synchronized void unwatch(Path file) {
+        if (files.remove(file) == null) {
+            return;
+        }
+        Path folder = file.getParent();
+        if (files.keySet().stream().noneMatch(watched -> folder.equals(watched.getParent()))) {
+            WatchKey key = folders.remove(folder);
+            if (key != null) {
+                keys.remove(key);
+                key.cancel();
+            }
+            ScheduledFuture<?> rearm = rearms.remove(folder);
+            if (rearm != null) {
+                rearm.cancel(false);
+            }
+        }
+    }
+
+    private void processEvents(WatchService watchService) {
+        try {
+            WatchKey key;
+            while ((key = watchService.take()) != null) {
+                List<WatchEvent<?>> events = key.pollEvents();
+                Set<Runnable> changed = new LinkedHashSet<>();
+                synchronized (this) {
+                    Path folder = keys.get(key);
+                    if (folder != null) {
+                        collect(folder, events, changed);
+                        if (!key.reset()) {
+                            LOGGER.warn("Stopped watching " + folder + ", it is no longer accessible, waiting for it to reappear");
+                            keys.remove(key);
+                            folders.remove(folder);
+                            collectAll(folder, changed);
+                            scheduleRearm(folder);
+                        }
+                    }
+                }
+                // outside of the lock, callbacks may watch or unwatch files
+                changed.forEach(Runnable::run);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException e) {
+            // disposed
+        }
+    }
+
+    private void scheduleRearm(Path folder) {
+        rearms.put(folder, TaskScheduler.getInstance().scheduleOnTimer(() -> rearm(folder), REARM_INTERVAL, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * Watch the folder again once it reappeared, its files may have been created in the meantime. Called on the timer
+     * thread, the files are notified from the IO lane.
+     */
+    private void rearm(Path folder) {
+        Set<Runnable> changed = new LinkedHashSet<>();
+        synchronized (this) {
+            if (rearms.remove(folder) == null) {
+                return;
+            }
+            if (!Files.isDirectory(folder)) {
+                scheduleRearm(folder);
+                return;
+            }
+            try {
+                WatchKey key = register(folder);
+                keys.put(key, folder);
+                folders.put(folder, key);
+            } catch (IOException e) {
+                scheduleRearm(folder);
+                return;
+            }
+            collectAll(folder, changed);
+        }
+        changed.forEach(onChange -> TaskScheduler.getInstance().schedule(TaskScheduler.Lane.IO, onChange, 0, TimeUnit.MILLISECONDS));
+    }
+
+    private void collectAll(Path folder, Set<Runnable> changed) {
+        files.forEach((file, onChange) -> {
+            if (folder.equals(file.getParent())) {
+                changed.add(onChange);
+            }
+        });
+    }
+
+    private void collect(Path folder, List<WatchEvent<?>> events, Set<Runnable> changed) {
+        for (WatchEvent<?> event : events) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                collectAll(folder, changed);
+            } else {
+                Runnable onChange = files.get(folder.resolve((Path) event.context()));
+                if (onChange != null) {
+                    changed.add(onChange);
+                }
+            }
+        }
+    }
+
+    @Override
+    public synchronized void dispose() {
+        rearms.values().forEach(rearm -> rearm.cancel(false));
+        rearms.clear();
+        files.clear();
+        keys.clear();
+        folders.clear();
+        if (service != null) {
+            try {
+                service.close();
+            } catch (IOException e) {
+                LOGGER.warn("Could not close watch service", e);
+            }
+            service = null;
+        }
+    }
+}
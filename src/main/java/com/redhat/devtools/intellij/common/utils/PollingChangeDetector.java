@@ -0,0 +1,179 @@
+/*******************************************************************************
+ * Copyright (c) 2020 Red Hat, Inc.
+ * Distributed under license by Red Hat, Inc. All rights reserved.
+ * This program is made available under the terms of the
+ * Eclipse Public License v2.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ * Red Hat, Inc.
+ ******************************************************************************/
+package com.redhat.devtools.intellij.common.utils;
+
+import com.intellij.openapi.diagnostic.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashSet;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Detect changes by comparing the size, modification time and identity of each watched file, only the watched files
+ * are checked rather than their folders. The polls of all the files are scheduled on the {@link TaskScheduler}, a
+ * file is polled every minimum interval right after it changed and the interval doubles up to the maximum interval
+ * while it does not. The files are checked on the timer thread so that polls do not wait behind long running I/O,
+ * only the listeners run on the IO lane.
+ */
+public class PollingChangeDetector implements ChangeDetector {
+    private static final Logger LOGGER = Logger.getInstance(PollingChangeDetector.class);
+
+    public static final long DEFAULT_MIN_INTERVAL = 250;
+    public static final long DEFAULT_MAX_INTERVAL = 4000;
+
+    private final long minInterval;
+    private final long maxInterval;
+    private final Set<Poll> polls = new HashSet<>();
+
+    public PollingChangeDetector() {
+        this(DEFAULT_MIN_INTERVAL, DEFAULT_MAX_INTERVAL);
+    }
+
+    /**
+     * @param minInterval the time in milliseconds between polls right after a change
+     * @param maxInterval the time in milliseconds between polls once the file did not change for a while
+     */
+    public PollingChangeDetector(long minInterval, long maxInterval) {
+        this.minInterval = minInterval;
+        this.maxInterval = maxInterval;
+    }
+
+    @Override
+    public synchronized Closeable watch(Path file, Runnable onChange) throws IOException {
+        if (!Files.isDirectory(file.getParent())) {
+            throw new NoSuchFileException(file.getParent().toString());
+        }
+        Poll poll = new Poll(file, onChange);
+        polls.add(poll);
+        poll.schedule();
+        return () -> unwatch(poll);
+    }
+
+    private synchronized void unwatch(Poll poll) {
+        if (polls.remove(poll)) {
+            poll.cancel();
+        }
+    }
+
+    @Override
+    public synchronized void dispose() {
+        polls.forEach(Poll::cancel);
+        polls.clear();
+    }
+
+    private class Poll {
+        private final Path file;
+        private final Runnable onChange;
+        private FileState state;
+        private long interval = minInterval;
+        private ScheduledFuture<?> next;
+        private boolean cancelled;
+
+        private Poll(Path file, Runnable onChange) {
+            this.file = file;
+            this.onChange = onChange;
+            this.state = FileState.of(file);
+        }
+
+        private synchronized void schedule() {
+            if (!cancelled) {
+                next = TaskScheduler.getInstance().scheduleOnTimer(this::poll, interval, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        /**
+         * Check the file on the timer thread, a change is handed over to the IO lane and the next poll is only
+         * scheduled once the listener returned. The timer thread never waits for room in the lane: if the lane is
+         * full the change is rejected right away and the state is kept so that the change is reported by the next poll.
+         */
+        private void poll() {
+            boolean notifying = false;
+            try {
+                FileState current = FileState.of(file);
+                if (!current.equals(state)) {
+                    interval = minInterval;
+                    TaskScheduler.getInstance().submit(TaskScheduler.Lane.IO, this::notifyChange);
+                    state = current;
+                    notifying = true;
+                } else {
+                    interval = Math.min(maxInterval, interval * 2);
+                }
+            } catch (RejectedExecutionException e) {
+                LOGGER.debug("Could not notify change of " + file + ", retrying", e);
+            } finally {
+                if (!notifying) {
+                    schedule();
+                }
+            }
+        }
+
+        private void notifyChange() {
+            try {
+                onChange.run();
+            } finally {
+                schedule();
+            }
+        }
+
+        private synchronized void cancel() {
+            cancelled = true;
+            if (next != null) {
+                next.cancel(false);
+            }
+        }
+    }
+
+    private static class FileState {
+        private static final FileState MISSING = new FileState(-1, -1, null);
+
+        private final long size;
+        private final long lastModified;
+        private final Object fileKey;
+
+        private FileState(long size, long lastModified, Object fileKey) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.fileKey = fileKey;
+        }
+
+        private static FileState of(Path file) {
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                return new FileState(attributes.size(), attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS), attributes.fileKey());
+            } catch (IOException e) {
+                return MISSING;
+            }
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof FileState)) {
+                return false;
+            }
+            FileState other = (FileState) o;
+            return size == other.size && lastModified == other.lastModified && Objects.equals(fileKey, other.fileKey);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(size, lastModified, fileKey);
+        }
+    }
+}
@@ -0,0 +1,520 @@
+/*******************************************************************************
+ * Copyright (c) 2020 Red Hat, Inc.
+ * Distributed under license by Red Hat, Inc. All rights reserved.
+ * This program is made available under the terms of the
+ * Eclipse Public License v2.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ * Red Hat, Inc.
+ ******************************************************************************/
+package com.redhat.devtools.intellij.common.utils;
+
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.util.io.HttpRequests;
+import org.apache.commons.lang.StringUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.channels.FileChannel;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Downloads a file over HTTP with several connections, each one fetching a segment of the file with a Range request.
+ * Segments are kept in part files next to the target until the download completes so that a cancelled or failed
+ * download resumes where it stopped. Servers that do not support ranges, small files and non HTTP urls are downloaded
+ * with a single stream. Requests go through {@link HttpRequests} with connect and read timeouts so that a stalled
+ * connection fails instead of hanging, and a lock file next to the target keeps other downloads of the same file,
+ * from this IDE or from another one sharing the folder, from writing to the same part files. Range requests are sent
+ * with the ETag or the Last-Modified date of the file in an If-Range header so that a file changed on the server is
+ * downloaded again from the start instead of being assembled from segments of different versions.
+ */
+public class RangeDownloader {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int DEFAULT_SEGMENTS = 4;
+    private static final long DEFAULT_MIN_SEGMENT_SIZE = 4L * 1024 * 1024;
+    private static final int DEFAULT_CONNECT_TIMEOUT = 10 * 1000;
+    private static final int DEFAULT_READ_TIMEOUT = 60 * 1000;
+    private static final long LOCK_POLL_INTERVAL = 200;
+    private static final int MAX_ATTEMPTS = 3;
+    private static final Pattern CONTENT_RANGE = Pattern.compile("bytes (\\d+)-(\\d+)/(\\d+|\\*)");
+
+    private static final String LENGTH = "length";
+    private static final String VALIDATOR = "validator";
+    private static final String SEGMENTS = "segments";
+
+    private final int segments;
+    private final long minSegmentSize;
+    private final int connectTimeout;
+    private final int readTimeout;
+
+    public RangeDownloader() {
+        this(DEFAULT_SEGMENTS, DEFAULT_MIN_SEGMENT_SIZE);
+    }
+
+    public RangeDownloader(int segments, long minSegmentSize) {
+        this(segments, minSegmentSize, DEFAULT_CONNECT_TIMEOUT, DEFAULT_READ_TIMEOUT);
+    }
+
+    /**
+     * @param connectTimeout the timeout in milliseconds to connect to the server
+     * @param readTimeout the timeout in milliseconds of a read, a stalled connection fails the download after it
+     */
+    public RangeDownloader(int segments, long minSegmentSize, int connectTimeout, int readTimeout) {
+        this.segments = segments;
+        this.minSegmentSize = minSegmentSize;
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+    }
+
+    public void download(URL url, Path target, ProgressIndicator progressIndicator) throws IOException {
+        Files.createDirectories(target.getParent());
+        try (FileChannel ignored = lock(target, progressIndicator)) {
+            for (int attempt = 1; ; attempt++) {
+                try {
+                    downloadOnce(url, target, progressIndicator);
+                    break;
+                } catch (ChangedException e) {
+                    if (attempt == MAX_ATTEMPTS) {
+                        throw e;
+                    }
+                }
+            }
+            deleteLock(target);
+        }
+    }
+
+    private void downloadOnce(URL url, Path target, ProgressIndicator progressIndicator) throws IOException {
+        Head head = "http".equals(url.getProtocol()) || "https".equals(url.getProtocol()) ? head(url) : null;
+        if (head == null || !head.ranges || head.length <= 0) {
+            request(head != null ? head.location : url).connect(request -> {
+                if (request.getConnection() instanceof HttpURLConnection) {
+                    checkResponse((HttpURLConnection) request.getConnection(), HttpURLConnection.HTTP_OK);
+                }
+                downloadStream(request.getInputStream(), target, progressIndicator, request.getConnection().getContentLengthLong());
+                return null;
+            });
+        } else {
+            downloadSegments(head.location, target, progressIndicator, head.length, head.validator);
+        }
+    }
+
+    private HttpRequests.RequestBuilder request(URL url) {
+        return HttpRequests.request(url.toString()).connectTimeout(connectTimeout).readTimeout(readTimeout);
+    }
+
+    /**
+     * @return the answer to a HEAD request or null if the server did not answer it, the file is then downloaded
+     * with a single stream
+     */
+    private Head head(URL url) {
+        try {
+            return request(url).tuner(connection -> ((HttpURLConnection) connection).setRequestMethod("HEAD")).connect(request -> {
+                HttpURLConnection connection = (HttpURLConnection) request.getConnection();
+                if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                    return null;
+                }
+                // a weak ETag cannot be sent in an If-Range header
+                String etag = connection.getHeaderField("ETag");
+                String validator = etag != null && !etag.startsWith("W/") ? etag : connection.getHeaderField("Last-Modified");
+                return new Head(connection.getURL(), connection.getContentLengthLong(),
+                        "bytes".equalsIgnoreCase(connection.getHeaderField("Accept-Ranges")), validator);
+            });
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Lock the download of the target so that another download of the same file, by this IDE or by another IDE
+     * sharing the cache folder, does not write to the same part files. The lock is released by closing the returned
+     * channel. The lock file is deleted by the download holding it once the target is downloaded, a download that
+     * waited for it then locks a new lock file.
+     */
+    private static FileChannel lock(Path target, ProgressIndicator progressIndicator) throws IOException {
+        Path file = getLockFile(target);
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        try {
+            while (true) {
+                if (tryLock(channel)) {
+                    if (Files.exists(file)) {
+                        return channel;
+                    }
+                    channel.close();
+                    channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                    continue;
+                }
+                if (progressIndicator.isCanceled()) {
+                    throw new IOException("Cancelled");
+                }
+                Thread.sleep(LOCK_POLL_INTERVAL);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            channel.close();
+            throw new IOException("Cancelled", e);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private static boolean tryLock(FileChannel channel) throws IOException {
+        try {
+            return channel.tryLock() != null;
+        } catch (OverlappingFileLockException e) {
+            // locked by another download in this IDE
+            return false;
+        }
+    }
+
+    private static void deleteLock(Path target) {
+        try {
+            Files.deleteIfExists(getLockFile(target));
+        } catch (IOException e) {
+            // deleted by the next download of the target
+        }
+    }
+
+    private static Path getLockFile(Path target) {
+        return target.resolveSibling(target.getFileName() + ".lock");
+    }
+
+    /**
+     * Segments are submitted to the IO lane of the {@link TaskScheduler} and the calling thread downloads the ones
+     * that are not started yet, so that the download completes even if the lane is busy, including with the thread
+     * running this download. Segments are only written once the server confirmed the range of the file with the
+     * validator of the HEAD request, the part files are deleted if the file changed so that the download restarts.
+     */
+    private void downloadSegments(URL url, Path target, ProgressIndicator progressIndicator, long length, String validator) throws IOException {
+        int count = (int) Math.max(1, Math.min(segments, length / minSegmentSize));
+        Path state = target.resolveSibling(target.getFileName() + ".parts");
+        List<Segment> parts = new ArrayList<>(count);
+        long segmentSize = length / count;
+        for (int i = 0; i < count; i++) {
+            long start = i * segmentSize;
+            long end = i == count - 1 ? length - 1 : start + segmentSize - 1;
+            parts.add(new Segment(target.resolveSibling(target.getFileName() + ".part" + i), start, end));
+        }
+        if (!isResumable(state, length, validator, count)) {
+            for (Segment part : parts) {
+                Files.deleteIfExists(part.file);
+            }
+            saveState(state, length, validator, count);
+        }
+        AtomicLong accumulated = new AtomicLong();
+        for (Segment part : parts) {
+            accumulated.addAndGet(part.getDownloaded());
+        }
+        List<SegmentTask> tasks = new ArrayList<>(count);
+        List<Future<Void>> futures = new ArrayList<>(count);
+        try {
+            for (Segment part : parts) {
+                SegmentTask task = new SegmentTask(() -> downloadSegment(url, part, progressIndicator, accumulated, length, validator));
+                tasks.add(task);
+                futures.add(TaskScheduler.getInstance().submit(TaskScheduler.Lane.IO, task));
+            }
+            for (SegmentTask task : tasks) {
+                task.call();
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } catch (ChangedException e) {
+            restart(tasks, futures, parts, state);
+            throw e;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof ChangedException) {
+                restart(tasks, futures, parts, state);
+            }
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Cancelled", e);
+        } catch (RejectedExecutionException e) {
+            throw new IOException(e);
+        } finally {
+            for (Future<Void> future : futures) {
+                future.cancel(true);
+            }
+        }
+        assemble(parts, target, length);
+        Files.deleteIfExists(state);
+    }
+
+    /**
+     * Delete the part files once the segments that are still running stopped writing to them.
+     */
+    private static void restart(List<SegmentTask> tasks, List<Future<Void>> futures, List<Segment> parts, Path state) throws IOException {
+        for (Future<Void> future : futures) {
+            future.cancel(true);
+        }
+        try {
+            for (SegmentTask task : tasks) {
+                task.cancel();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Cancelled", e);
+        }
+        Files.deleteIfExists(state);
+        for (Segment part : parts) {
+            Files.deleteIfExists(part.file);
+        }
+    }
+
+    private void downloadSegment(URL url, Segment part, ProgressIndicator progressIndicator, AtomicLong accumulated, long length, String validator) throws IOException {
+        long downloaded = part.getDownloaded();
+        if (downloaded > part.getLength()) {
+            Files.delete(part.file);
+            accumulated.addAndGet(-downloaded);
+            downloaded = 0;
+        }
+        if (downloaded == part.getLength()) {
+            return;
+        }
+        long from = part.start + downloaded;
+        request(url).tuner(connection -> {
+            connection.setRequestProperty("Range", "bytes=" + from + "-" + part.end);
+            if (StringUtils.isNotEmpty(validator)) {
+                connection.setRequestProperty("If-Range", validator);
+            }
+        }).connect(request -> {
+            HttpURLConnection connection = (HttpURLConnection) request.getConnection();
+            if (connection.getResponseCode() == HttpURLConnection.HTTP_OK) {
+                // the server sends the whole file if it no longer matches the validator
+                throw new ChangedException(url + " changed during the download");
+            }
+            checkResponse(connection, HttpURLConnection.HTTP_PARTIAL);
+            checkContentRange(connection, from, part.end, length);
+            try (OutputStream output = Files.newOutputStream(part.file, StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                copy(request.getInputStream(), output, progressIndicator, accumulated, length);
+            }
+            return null;
+        });
+        if (part.getDownloaded() != part.getLength()) {
+            throw new IOException("Segment " + part.file + " is incomplete");
+        }
+    }
+
+    private static void downloadStream(InputStream input, Path target, ProgressIndicator progressIndicator, long length) throws IOException {
+        Path part = target.resolveSibling(target.getFileName() + ".part");
+        try {
+            try (InputStream stream = input;
+                 OutputStream output = Files.newOutputStream(part)) {
+                copy(stream, output, progressIndicator, new AtomicLong(), length);
+            }
+            if (length > 0 && Files.size(part) != length) {
+                throw new IOException("Downloaded " + Files.size(part) + " bytes, expected " + length);
+            }
+            move(part, target);
+        } finally {
+            Files.deleteIfExists(part);
+        }
+    }
+
+    private static void copy(InputStream input, OutputStream output, ProgressIndicator progressIndicator, AtomicLong accumulated, long length) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int lg;
+        while ((lg = input.read(buffer)) > 0) {
+            if (progressIndicator.isCanceled() || Thread.currentThread().isInterrupted()) {
+                throw new IOException("Cancelled");
+            }
+            output.write(buffer, 0, lg);
+            long total = accumulated.addAndGet(lg);
+            if (length > 0) {
+                progressIndicator.setFraction((double) total / length);
+            }
+        }
+    }
+
+    private static void assemble(List<Segment> parts, Path target, long length) throws IOException {
+        Path tmp = target.resolveSibling(target.getFileName() + ".part");
+        try {
+            try (FileChannel output = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                for (Segment part : parts) {
+                    try (FileChannel input = FileChannel.open(part.file, StandardOpenOption.READ)) {
+                        long size = input.size();
+                        long position = 0;
+                        while (position < size) {
+                            position += input.transferTo(position, size - position, output);
+                        }
+                    }
+                }
+                if (output.size() != length) {
+                    throw new IOException("Downloaded " + output.size() + " bytes, expected " + length);
+                }
+            }
+            move(tmp, target);
+            for (Segment part : parts) {
+                Files.deleteIfExists(part.file);
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private static boolean isResumable(Path state, long length, String validator, int count) {
+        if (StringUtils.isEmpty(validator) || !Files.exists(state)) {
+            return false;
+        }
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(state, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        } catch (IOException e) {
+            return false;
+        }
+        return String.valueOf(length).equals(properties.getProperty(LENGTH))
+                && Objects.equals(validator, properties.getProperty(VALIDATOR))
+                && String.valueOf(count).equals(properties.getProperty(SEGMENTS));
+    }
+
+    private static void saveState(Path state, long length, String validator, int count) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty(LENGTH, String.valueOf(length));
+        properties.setProperty(VALIDATOR, StringUtils.defaultString(validator));
+        properties.setProperty(SEGMENTS, String.valueOf(count));
+        try (Writer writer = Files.newBufferedWriter(state, StandardCharsets.UTF_8)) {
+            properties.store(writer, null);
+        }
+    }
+
+    private static void checkResponse(HttpURLConnection connection, int expected) throws IOException {
+        int code = connection.getResponseCode();
+        if (code != expected) {
+            throw new IOException("Unexpected response " + code + " from " + connection.getURL() + ", expected " + expected);
+        }
+    }
+
+    private static void checkContentRange(HttpURLConnection connection, long start, long end, long length) throws IOException {
+        String range = connection.getHeaderField("Content-Range");
+        Matcher matcher = range != null ? CONTENT_RANGE.matcher(range) : null;
+        if (matcher == null || !matcher.matches()) {
+            throw new IOException("Unexpected Content-Range " + range + " from " + connection.getURL());
+        }
+        if (!"*".equals(matcher.group(3)) && Long.parseLong(matcher.group(3)) != length) {
+            throw new ChangedException(connection.getURL() + " changed during the download");
+        }
+        if (Long.parseLong(matcher.group(1)) != start || Long.parseLong(matcher.group(2)) != end) {
+            throw new IOException("Unexpected Content-Range " + range + " from " + connection.getURL()
+                    + ", expected bytes " + start + "-" + end);
+        }
+    }
+
+    private static void move(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static class Segment {
+        private final Path file;
+        private final long start;
+        private final long end;
+
+        private Segment(Path file, long start, long end) {
+            this.file = file;
+            this.start = start;
+            this.end = end;
+        }
+
+        private long getLength() {
+            return end - start + 1;
+        }
+
+        private long getDownloaded() throws IOException {
+            return Files.exists(file) ? Files.size(file) : 0;
+        }
+    }
+
+    private static class Head {
+        private final URL location;
+        private final long length;
+        private final boolean ranges;
+        private final String validator;
+
+        private Head(URL location, long length, boolean ranges, String validator) {
+            this.location = location;
+            this.length = length;
+            this.ranges = ranges;
+            this.validator = validator;
+        }
+    }
+
+    /**
+     * The file changed on the server since the HEAD request, the download restarts.
+     */
+    private static class ChangedException extends IOException {
+        private ChangedException(String message) {
+            super(message);
+        }
+    }
+
+    private interface SegmentDownload {
+        void run() throws IOException;
+    }
+
+    /**
+     * A segment download run once, either by a thread of the lane or by the thread waiting for the segments.
+     */
+    private static class SegmentTask implements Callable<Void> {
+        private final SegmentDownload download;
+        private final AtomicBoolean claimed = new AtomicBoolean();
+        private final CountDownLatch done = new CountDownLatch(1);
+
+        private SegmentTask(SegmentDownload download) {
+            this.download = download;
+        }
+
+        @Override
+        public Void call() throws IOException {
+            if (claimed.compareAndSet(false, true)) {
+                try {
+                    download.run();
+                } finally {
+                    done.countDown();
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Prevent the segment from being downloaded if it is not started yet, or wait for its download to stop.
+         */
+        private void cancel() throws InterruptedException {
+            if (claimed.compareAndSet(false, true)) {
+                done.countDown();
+            }
+            done.await();
+        }
+    }
+}
@@ -0,0 +1,199 @@
+/*******************************************************************************
+ * Copyright (c) 2020 Red Hat, Inc.
+ * Distributed under license by Red Hat, Inc. All rights reserved.
+ * This program is made available under the terms of the
+ * Eclipse Public License v2.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ * Red Hat, Inc.
+ ******************************************************************************/
+package com.redhat.devtools.intellij.common.utils;
+
+import org.apache.commons.io.IOUtils;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * An input stream reading its delegate on the IO lane of the {@link TaskScheduler}, a bounded number of chunks ahead
+ * of the consumer. When the delegate is a decompressor, decompression runs in parallel with the processing of the
+ * uncompressed data (ie parsing the archive and writing the files). If the lane is too busy to start reading, the
+ * consumer reads the delegate itself.
+ * Closing this stream closes the delegate and stops the background task.
+ */
+public class ReadAheadInputStream extends InputStream {
+    private static final byte[] EOF = new byte[0];
+    private static final long START_TIMEOUT = 100;
+    private static final long CLOSE_TIMEOUT = TimeUnit.SECONDS.toMillis(5);
+
+    private final InputStream delegate;
+    private final int chunkSize;
+    private final long closeTimeout;
+    private final BlockingQueue<byte[]> chunks;
+    private final AtomicBoolean started = new AtomicBoolean();
+    private final CountDownLatch stopped = new CountDownLatch(1);
+    private volatile IOException error;
+    private volatile boolean closed;
+    private boolean direct;
+    private byte[] current;
+    private int position;
+    private boolean eof;
+
+    public ReadAheadInputStream(InputStream delegate, int chunkSize, int maxChunks) {
+        this(delegate, chunkSize, maxChunks, CLOSE_TIMEOUT);
+    }
+
+    /**
+     * @param closeTimeout the time in milliseconds {@link #close()} waits for the background task to stop
+     */
+    ReadAheadInputStream(InputStream delegate, int chunkSize, int maxChunks, long closeTimeout) {
+        this.delegate = delegate;
+        this.chunkSize = chunkSize;
+        this.closeTimeout = closeTimeout;
+        this.chunks = new ArrayBlockingQueue<>(maxChunks);
+        try {
+            TaskScheduler.getInstance().submit(TaskScheduler.Lane.IO, this::pump);
+        } catch (RejectedExecutionException e) {
+            // the consumer reads the delegate itself
+        }
+    }
+
+    private void pump() {
+        if (!started.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            int lg = chunkSize;
+            while (!closed && lg == chunkSize) {
+                byte[] chunk = new byte[chunkSize];
+                lg = IOUtils.read(delegate, chunk);
+                if (lg > 0) {
+                    chunks.put(lg < chunkSize ? Arrays.copyOf(chunk, lg) : chunk);
+                }
+            }
+        } catch (IOException e) {
+            error = e;
+        } catch (RuntimeException e) {
+            error = new IOException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            error = new InterruptedIOException();
+        }
+        try {
+            if (!closed) {
+                chunks.put(EOF);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            stopped.countDown();
+        }
+    }
+
+    private boolean next() throws IOException {
+        if (eof) {
+            return false;
+        }
+        if (direct) {
+            return readDirect();
+        }
+        try {
+            current = null;
+            while (current == null) {
+                current = chunks.poll(START_TIMEOUT, TimeUnit.MILLISECONDS);
+                if (current == null && started.compareAndSet(false, true)) {
+                    // the background task did not start yet, the lane is busy
+                    direct = true;
+                    return readDirect();
+                }
+            }
+            position = 0;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+        if (current == EOF) {
+            eof = true;
+            if (error != null) {
+                throw new IOException(error.getLocalizedMessage(), error);
+            }
+            return false;
+        }
+        return true;
+    }
+
+    private boolean readDirect() throws IOException {
+        byte[] chunk = new byte[chunkSize];
+        int lg = IOUtils.read(delegate, chunk);
+        if (lg == 0) {
+            eof = true;
+            return false;
+        }
+        current = lg < chunkSize ? Arrays.copyOf(chunk, lg) : chunk;
+        position = 0;
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if ((current == null || position == current.length) && !next()) {
+            return -1;
+        }
+        return current[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(@NotNull byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if ((current == null || position == current.length) && !next()) {
+            return -1;
+        }
+        int lg = Math.min(len, current.length - position);
+        System.arraycopy(current, position, b, off, lg);
+        position += lg;
+        return lg;
+    }
+
+    @Override
+    public int available() {
+        return current == null ? 0 : current.length - position;
+    }
+
+    /**
+     * Close the delegate, which releases its resources and unblocks the background task if it is waiting for data,
+     * then wait a bounded time for the background task to stop.
+     */
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            boolean running = !started.compareAndSet(false, true) && !direct;
+            chunks.clear();
+            try {
+                delegate.close();
+            } finally {
+                if (running) {
+                    try {
+                        stopped.await(closeTimeout, TimeUnit.MILLISECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException();
+                    }
+                }
+                chunks.clear();
+            }
+        }
+    }
+}
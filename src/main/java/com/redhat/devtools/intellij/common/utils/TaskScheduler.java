@@ -0,0 +1,505 @@
+/*******************************************************************************
+ * Copyright (c) 2020 Red Hat, Inc.
+ * Distributed under license by Red Hat, Inc. All rights reserved.
+ * This program is made available under the terms of the
+ * Eclipse Public License v2.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ * Red Hat, Inc.
+ ******************************************************************************/
+package com.redhat.devtools.intellij.common.utils;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.Application;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.Disposer;
+import org.jetbrains.annotations.NotNull;
+
+import javax.swing.SwingUtilities;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded scheduler with separate lanes for blocking process I/O and for short CPU tasks. Threads are named daemon
+ * threads, queues are bounded and the tasks that cannot be queued are handed to a {@link RejectedExecutionHandler}.
+ * Exceptions thrown by tasks are logged instead of being swallowed and each lane exposes its {@link LaneMetrics}.
+ * The default instance uses a {@link BlockingPolicy}: a task submitted while the queue of its lane is full waits for
+ * room instead of being rejected. The timer thread and the event dispatch thread never wait for room, their tasks are
+ * rejected as soon as the queue is full whatever the policy. It is disposed together with the application.
+ */
+public class TaskScheduler implements Disposable {
+    private static final Logger LOGGER = Logger.getInstance(TaskScheduler.class);
+
+    private static final int DEFAULT_QUEUE_CAPACITY = 1024;
+    private static final long MIN_HAND_OVER_BACKOFF = 10;
+    private static final long MAX_HAND_OVER_BACKOFF = 1000;
+
+    public enum Lane {
+        /**
+         * Tasks blocking on process or network I/O.
+         */
+        IO,
+        /**
+         * Short, non blocking, computation tasks.
+         */
+        CPU
+    }
+
+    public static class LaneMetrics {
+        private final int queueDepth;
+        private final int activeCount;
+        private final int poolSize;
+        private final long completedCount;
+        private final long rejectedCount;
+        private final long averageLatency;
+        private final long maxLatency;
+
+        private LaneMetrics(int queueDepth, int activeCount, int poolSize, long completedCount, long rejectedCount, long averageLatency, long maxLatency) {
+            this.queueDepth = queueDepth;
+            this.activeCount = activeCount;
+            this.poolSize = poolSize;
+            this.completedCount = completedCount;
+            this.rejectedCount = rejectedCount;
+            this.averageLatency = averageLatency;
+            this.maxLatency = maxLatency;
+        }
+
+        public int getQueueDepth() {
+            return queueDepth;
+        }
+
+        public int getActiveCount() {
+            return activeCount;
+        }
+
+        public int getPoolSize() {
+            return poolSize;
+        }
+
+        public long getCompletedCount() {
+            return completedCount;
+        }
+
+        /**
+         * @return the number of tasks that found the queue full and were handed to the rejection policy
+         */
+        public long getRejectedCount() {
+            return rejectedCount;
+        }
+
+        /**
+         * @return the average time in milliseconds a task waited in the queue before being run
+         */
+        public long getAverageLatency() {
+            return averageLatency;
+        }
+
+        /**
+         * @return the maximum time in milliseconds a task waited in the queue before being run
+         */
+        public long getMaxLatency() {
+            return maxLatency;
+        }
+
+        @Override
+        public String toString() {
+            return "queued=" + queueDepth + " active=" + activeCount + " pool=" + poolSize + " completed=" + completedCount
+                    + " rejected=" + rejectedCount + " avgLatency=" + averageLatency + "ms maxLatency=" + maxLatency + "ms";
+        }
+    }
+
+    private static TaskScheduler INSTANCE;
+
+    public static synchronized TaskScheduler getInstance() {
+        if (INSTANCE == null) {
+            INSTANCE = new TaskScheduler("intellij-common", Math.max(4, 2 * Runtime.getRuntime().availableProcessors()),
+                    Runtime.getRuntime().availableProcessors(), DEFAULT_QUEUE_CAPACITY, new BlockingPolicy());
+            INSTANCE.registerShutdown();
+        }
+        return INSTANCE;
+    }
+
+    /**
+     * Replace the default scheduler, the previous one is disposed.
+     *
+     * @param scheduler the new default scheduler
+     */
+    public static synchronized void setInstance(TaskScheduler scheduler) {
+        if (INSTANCE != null && INSTANCE != scheduler) {
+            INSTANCE.dispose();
+        }
+        INSTANCE = scheduler;
+    }
+
+    private final Map<Lane, LaneExecutor> lanes = new EnumMap<>(Lane.class);
+    private final ScheduledExecutorService timer;
+
+    public TaskScheduler(String name, int ioThreads, int cpuThreads, int queueCapacity, RejectedExecutionHandler rejectionPolicy) {
+        lanes.put(Lane.IO, new LaneExecutor(name + "-io", ioThreads, queueCapacity, rejectionPolicy));
+        lanes.put(Lane.CPU, new LaneExecutor(name + "-cpu", cpuThreads, queueCapacity, rejectionPolicy));
+        ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new TimerThread(runnable, name + "-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.setRemoveOnCancelPolicy(true);
+        this.timer = timer;
+    }
+
+    public Executor getExecutor(Lane lane) {
+        return lanes.get(lane);
+    }
+
+    /**
+     * Submit a task to a lane.
+     *
+     * @throws RejectedExecutionException if the scheduler is disposed, or if the queue of the lane is full and the
+     * rejection policy rejects the task or the caller is the timer or the event dispatch thread
+     */
+    public Future<?> submit(Lane lane, Runnable runnable) {
+        return lanes.get(lane).submit(runnable);
+    }
+
+    public <T> Future<T> submit(Lane lane, Callable<T> callable) {
+        return lanes.get(lane).submit(callable);
+    }
+
+    /**
+     * Schedule a task, the timer thread only hands the task over to the lane once the delay expired so that delayed
+     * tasks are subject to the same bounds as the others. The timer thread never waits for room in the queue: while
+     * the lane is full the hand over is retried with an increasing backoff, a task is only dropped, and logged, if the
+     * scheduler is disposed.
+     *
+     * @return the future of the hand over, done once the task is queued on the lane
+     * @throws RejectedExecutionException if the scheduler is disposed
+     */
+    public ScheduledFuture<?> schedule(Lane lane, Runnable runnable, long delay, TimeUnit unit) {
+        HandOver handOver = new HandOver(lane, runnable);
+        handOver.schedule(delay, unit);
+        return handOver;
+    }
+
+    /**
+     * Schedule a short task that runs on the timer thread itself, such as checking the attributes of a file, so that
+     * it does not wait behind the tasks queued on the lanes. The task must not block and must hand any longer work
+     * over to a lane.
+     *
+     * @throws RejectedExecutionException if the scheduler is disposed
+     */
+    public ScheduledFuture<?> scheduleOnTimer(Runnable runnable, long delay, TimeUnit unit) {
+        return timer.schedule(() -> {
+            try {
+                runnable.run();
+            } catch (RuntimeException e) {
+                LOGGER.warn("Timer task failed", e);
+            }
+        }, delay, unit);
+    }
+
+    /**
+     * Run the tasks on a lane and wait for all of them. The calling thread runs the tasks that no thread of the lane
+     * started yet, so that the call completes even if the lane is saturated, including by other callers of this
+     * method.
+     *
+     * @return the futures of the tasks, all done
+     * @throws InterruptedException if interrupted while waiting, the tasks not done yet are then cancelled
+     */
+    public <T> List<Future<T>> invokeAll(Lane lane, Collection<? extends Callable<T>> tasks) throws InterruptedException {
+        List<Future<T>> futures = new ArrayList<>(tasks.size());
+        for (Callable<T> task : tasks) {
+            FutureTask<T> future = new FutureTask<>(task);
+            futures.add(future);
+            try {
+                getExecutor(lane).execute(future);
+            } catch (RejectedExecutionException e) {
+                // run by the calling thread
+            }
+        }
+        for (Future<T> future : futures) {
+            ((FutureTask<T>) future).run();
+        }
+        try {
+            for (Future<T> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException | CancellationException e) {
+                    // reported by the future
+                }
+            }
+        } catch (InterruptedException e) {
+            futures.forEach(future -> future.cancel(true));
+            throw e;
+        }
+        return futures;
+    }
+
+    public LaneMetrics getMetrics(Lane lane) {
+        return lanes.get(lane).getMetrics();
+    }
+
+    private void registerShutdown() {
+        Application application = ApplicationManager.getApplication();
+        if (application != null) {
+            Disposer.register(application, this);
+        } else {
+            Runtime.getRuntime().addShutdownHook(new Thread(this::dispose, "intellij-common-shutdown"));
+        }
+    }
+
+    @Override
+    public void dispose() {
+        timer.shutdownNow();
+        lanes.values().forEach(ThreadPoolExecutor::shutdownNow);
+    }
+
+    /**
+     * A rejection policy that makes the submitter wait until there is room in the queue of the lane, so that no task
+     * is lost when the lane is saturated. Tasks submitted to a disposed scheduler are still rejected, as are the tasks
+     * submitted by the timer and the event dispatch thread which must not wait.
+     */
+    public static class BlockingPolicy implements RejectedExecutionHandler {
+        @Override
+        public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor) {
+            if (executor.isShutdown()) {
+                throw new RejectedExecutionException("Scheduler is disposed");
+            }
+            try {
+                executor.getQueue().put(runnable);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RejectedExecutionException("Interrupted while waiting for room in the queue", e);
+            }
+            if (executor.isShutdown() && executor.getQueue().remove(runnable)) {
+                throw new RejectedExecutionException("Scheduler is disposed");
+            }
+        }
+    }
+
+    private static boolean mustNotWait() {
+        return Thread.currentThread() instanceof TimerThread || SwingUtilities.isEventDispatchThread();
+    }
+
+    private static class TimerThread extends Thread {
+        private TimerThread(Runnable runnable, String name) {
+            super(runnable, name);
+        }
+    }
+
+    /**
+     * Hands a delayed task over to its lane from the timer thread, retrying with a backoff while the lane is full.
+     */
+    private class HandOver implements ScheduledFuture<Object> {
+        private final Lane lane;
+        private final Runnable runnable;
+        private final CompletableFuture<Object> done = new CompletableFuture<>();
+        private long backoff = MIN_HAND_OVER_BACKOFF;
+        private ScheduledFuture<?> attempt;
+
+        private HandOver(Lane lane, Runnable runnable) {
+            this.lane = lane;
+            this.runnable = runnable;
+        }
+
+        private synchronized void schedule(long delay, TimeUnit unit) {
+            if (!done.isDone()) {
+                attempt = timer.schedule(this::handOver, delay, unit);
+            }
+        }
+
+        private void handOver() {
+            try {
+                submit(lane, runnable);
+                done.complete(null);
+            } catch (RejectedExecutionException e) {
+                if (lanes.get(lane).isShutdown()) {
+                    LOGGER.warn("Could not run scheduled task on " + lane + " lane", e);
+                    done.complete(null);
+                    return;
+                }
+                long delay = backoff;
+                backoff = Math.min(MAX_HAND_OVER_BACKOFF, 2 * backoff);
+                try {
+                    schedule(delay, TimeUnit.MILLISECONDS);
+                } catch (RejectedExecutionException disposed) {
+                    done.complete(null);
+                }
+            }
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = done.cancel(mayInterruptIfRunning);
+            synchronized (this) {
+                if (attempt != null) {
+                    attempt.cancel(false);
+                }
+            }
+            return cancelled;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return done.isCancelled();
+        }
+
+        @Override
+        public boolean isDone() {
+            return done.isDone();
+        }
+
+        @Override
+        public Object get() throws InterruptedException, ExecutionException {
+            return done.get();
+        }
+
+        @Override
+        public Object get(long timeout, @NotNull TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+            return done.get(timeout, unit);
+        }
+
+        @Override
+        public synchronized long getDelay(@NotNull TimeUnit unit) {
+            return attempt == null ? 0 : attempt.getDelay(unit);
+        }
+
+        @Override
+        public int compareTo(@NotNull Delayed other) {
+            return Long.compare(getDelay(TimeUnit.NANOSECONDS), other.getDelay(TimeUnit.NANOSECONDS));
+        }
+    }
+
+    private static class NamedThreadFactory implements ThreadFactory {
+        private final String name;
+        private final AtomicInteger count = new AtomicInteger();
+
+        private NamedThreadFactory(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Thread newThread(@NotNull Runnable runnable) {
+            Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    private static class LaneExecutor extends ThreadPoolExecutor {
+        private final String name;
+        private final AtomicLong rejected = new AtomicLong();
+        private final LongAdder latencies = new LongAdder();
+        private final LongAdder started = new LongAdder();
+        private final LongAccumulator maxLatency = new LongAccumulator(Math::max, 0L);
+
+        private LaneExecutor(String name, int threads, int queueCapacity, RejectedExecutionHandler rejectionPolicy) {
+            super(threads, threads, 60L, TimeUnit.SECONDS, new ArrayBlockingQueue<>(queueCapacity), new NamedThreadFactory(name));
+            this.name = name;
+            allowCoreThreadTimeOut(true);
+            setRejectedExecutionHandler((runnable, executor) -> {
+                rejected.incrementAndGet();
+                LOGGER.warn("Task rejected by " + name + ": " + getMetrics());
+                if (mustNotWait()) {
+                    throw new RejectedExecutionException("Queue of " + name + " is full");
+                }
+                rejectionPolicy.rejectedExecution(runnable, executor);
+            });
+        }
+
+        @Override
+        public void execute(@NotNull Runnable command) {
+            super.execute(new TimedTask(command));
+        }
+
+        @Override
+        protected void beforeExecute(Thread thread, Runnable runnable) {
+            super.beforeExecute(thread, runnable);
+            if (runnable instanceof TimedTask) {
+                long latency = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - ((TimedTask) runnable).queued);
+                latencies.add(latency);
+                started.increment();
+                maxLatency.accumulate(latency);
+            }
+        }
+
+        @Override
+        protected void afterExecute(Runnable runnable, Throwable throwable) {
+            super.afterExecute(runnable, throwable);
+            if (throwable == null && runnable instanceof TimedTask) {
+                throwable = ((TimedTask) runnable).failure;
+            }
+            if (throwable == null && runnable instanceof TimedTask && ((TimedTask) runnable).delegate instanceof Future) {
+                Future<?> future = (Future<?>) ((TimedTask) runnable).delegate;
+                if (future.isDone()) {
+                    try {
+                        future.get();
+                    } catch (CancellationException e) {
+                        // cancelled by the caller
+                    } catch (ExecutionException e) {
+                        throwable = e.getCause();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+            if (throwable != null) {
+                LOGGER.warn("Task failed on " + name, throwable);
+            }
+        }
+
+        private LaneMetrics getMetrics() {
+            long count = started.sum();
+            return new LaneMetrics(getQueue().size(), getActiveCount(), getPoolSize(), getCompletedTaskCount(),
+                    rejected.get(), count == 0 ? 0 : latencies.sum() / count, maxLatency.get());
+        }
+    }
+
+    /**
+     * Measures the queue latency of a task. The exception thrown by a task run through {@link #getExecutor(Lane)} is
+     * kept to be logged rather than killing the thread of the lane.
+     */
+    private static class TimedTask implements Runnable {
+        private final Runnable delegate;
+        private final long queued = System.nanoTime();
+        private RuntimeException failure;
+
+        private TimedTask(Runnable delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void run() {
+            try {
+                delegate.run();
+            } catch (RuntimeException e) {
+                failure = e;
+            }
+        }
+    }
+}
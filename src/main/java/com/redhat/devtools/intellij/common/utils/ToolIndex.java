@@ -0,0 +1,228 @@
+/*******************************************************************************
+ * Copyright (c) 2020 Red Hat, Inc.
+ * Distributed under license by Red Hat, Inc. All rights reserved.
+ * This program is made available under the terms of the
+ * Eclipse Public License v2.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ * Red Hat, Inc.
+ ******************************************************************************/
+package com.redhat.devtools.intellij.common.utils;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.intellij.openapi.util.SystemInfo;
+import com.redhat.devtools.intellij.common.CommonConstants;
+import org.apache.commons.lang.StringUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * A persistent index of the tools found on the PATH and of their version. An entry is only used as long as the binary
+ * has the same size and modification time as when it was probed, and the tool is probed with the same configuration,
+ * so that the version command does not need to be run at every IDE startup.
+ */
+public class ToolIndex {
+    private static final ObjectMapper MAPPER = new ObjectMapper(new JsonFactory());
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class Entry {
+        private String path;
+        private long size;
+        private long lastModified;
+        private String fingerprint;
+        private String version;
+
+        public String getPath() {
+            return path;
+        }
+
+        public void setPath(String path) {
+            this.path = path;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public void setSize(long size) {
+            this.size = size;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        public void setLastModified(long lastModified) {
+            this.lastModified = lastModified;
+        }
+
+        public String getFingerprint() {
+            return fingerprint;
+        }
+
+        public void setFingerprint(String fingerprint) {
+            this.fingerprint = fingerprint;
+        }
+
+        public String getVersion() {
+            return version;
+        }
+
+        public void setVersion(String version) {
+            this.version = version;
+        }
+    }
+
+    private static ToolIndex INSTANCE;
+
+    public static synchronized ToolIndex getInstance() {
+        if (INSTANCE == null) {
+            INSTANCE = new ToolIndex(Paths.get(CommonConstants.CACHE_FOLDER, "tools-index.json"));
+        }
+        return INSTANCE;
+    }
+
+    /**
+     * Replace the default index, to store it in another location.
+     *
+     * @param index the new default index
+     */
+    public static synchronized void setInstance(ToolIndex index) {
+        INSTANCE = index;
+    }
+
+    private final Path file;
+    private Map<String, Entry> entries;
+
+    public ToolIndex(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Return the version stored for the tool if the binary at path and the configuration did not change since it
+     * was probed.
+     *
+     * @param toolName the name of the tool
+     * @param path the resolved path of the binary
+     * @param fingerprint the fingerprint of the tool configuration used for probing
+     * @return the version or null if the tool needs to be probed
+     */
+    public synchronized String getVersion(String toolName, Path path, String fingerprint) {
+        Entry entry = getEntries().get(toolName);
+        if (entry != null
+                && Objects.equals(entry.getPath(), path.toString())
+                && Objects.equals(entry.getFingerprint(), fingerprint)) {
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                if (attributes.size() == entry.getSize() && attributes.lastModifiedTime().toMillis() == entry.getLastModified()) {
+                    return entry.getVersion();
+                }
+            } catch (IOException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    public synchronized void putVersion(String toolName, Path path, String fingerprint, String version) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            Entry entry = new Entry();
+            entry.setPath(path.toString());
+            entry.setSize(attributes.size());
+            entry.setLastModified(attributes.lastModifiedTime().toMillis());
+            entry.setFingerprint(fingerprint);
+            entry.setVersion(version);
+            getEntries().put(toolName, entry);
+            save();
+        } catch (IOException e) {
+            getEntries().remove(toolName);
+        }
+    }
+
+    private Map<String, Entry> getEntries() {
+        if (entries == null) {
+            entries = new HashMap<>();
+            if (Files.exists(file)) {
+                try {
+                    entries = MAPPER.readValue(file.toFile(), new TypeReference<HashMap<String, Entry>>() {});
+                } catch (IOException e) {
+                    // corrupted index, tools will be probed again
+                }
+            }
+        }
+        return entries;
+    }
+
+    private void save() throws IOException {
+        Files.createDirectories(file.getParent());
+        Path tmp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+        try {
+            MAPPER.writeValue(tmp.toFile(), entries);
+            try {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Look for the command in the folders of the PATH environment variable.
+     *
+     * @param command the command name or path
+     * @return the path to the executable or null if not found
+     */
+    public static Path resolveOnPath(String command) {
+        if (command.indexOf('/') >= 0 || command.indexOf(File.separatorChar) >= 0) {
+            Path path = Paths.get(command);
+            return Files.isRegularFile(path) && Files.isExecutable(path) ? path.toAbsolutePath() : null;
+        }
+        String pathVariable = System.getenv("PATH");
+        if (StringUtils.isBlank(pathVariable)) {
+            return null;
+        }
+        String[] extensions = SystemInfo.isWindows ? getWindowsExtensions() : new String[]{""};
+        for (String folder : pathVariable.split(File.pathSeparator)) {
+            if (StringUtils.isBlank(folder)) {
+                continue;
+            }
+            for (String extension : extensions) {
+                try {
+                    Path candidate = Paths.get(folder, command + extension);
+                    if (Files.isRegularFile(candidate) && Files.isExecutable(candidate)) {
+                        return candidate.toAbsolutePath();
+                    }
+                } catch (RuntimeException e) {
+                    // invalid PATH entry
+                }
+            }
+        }
+        return null;
+    }
+
+    private static String[] getWindowsExtensions() {
+        String pathExt = System.getenv("PATHEXT");
+        String[] extensions = StringUtils.isBlank(pathExt) ? new String[]{".exe", ".cmd", ".bat"} : pathExt.toLowerCase().split(File.pathSeparator);
+        String[] result = Arrays.copyOf(extensions, extensions.length + 1);
+        result[extensions.length] = "";
+        return result;
+    }
+}
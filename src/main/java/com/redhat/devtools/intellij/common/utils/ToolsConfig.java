@@ -10,11 +10,18 @@
  ******************************************************************************/
 package com.redhat.devtools.intellij.common.utils;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import org.apache.commons.lang.StringUtils;
 
+import java.io.IOException;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 @JsonIgnoreProperties(ignoreUnknown = true)
 public class ToolsConfig {
@@ -25,7 +32,14 @@ public class ToolsConfig {
     private String versionCmd;
     private String versionExtractRegExp;
     private String versionMatchRegExpr;
+    private String versionRange;
     private String baseDir;
+    private boolean parallelUncompress;
+
+    private volatile Pattern versionExtractPattern;
+    private volatile Pattern versionMatchPattern;
+    private volatile String[] versionArguments;
+    private volatile VersionRange parsedVersionRange;
 
     public Map<String, Platform> getPlatforms() {
       return platforms;
@@ -49,6 +63,7 @@ public class ToolsConfig {
 
     public void setVersionCmd(String versionCmd) {
       this.versionCmd = versionCmd;
+      this.versionArguments = null;
     }
 
     public String getVersionExtractRegExp() {
@@ -57,6 +72,7 @@ public class ToolsConfig {
 
     public void setVersionExtractRegExp(String versionExtractRegExp) {
       this.versionExtractRegExp = versionExtractRegExp;
+      this.versionExtractPattern = null;
     }
 
     public String getVersionMatchRegExpr() {
@@ -65,6 +81,114 @@ public class ToolsConfig {
 
     public void setVersionMatchRegExpr(String versionMatchRegExpr) {
       this.versionMatchRegExpr = versionMatchRegExpr;
+      this.versionMatchPattern = null;
+    }
+
+    /**
+     * @return the range of compatible versions such as {@code >=0.5 <1}, see {@link VersionRange}
+     */
+    public String getVersionRange() {
+      return versionRange;
+    }
+
+    public void setVersionRange(String versionRange) {
+      this.versionRange = versionRange;
+      this.parsedVersionRange = null;
+    }
+
+    /**
+     * @return the arguments of the version command
+     */
+    @JsonIgnore
+    public String[] getVersionArguments() {
+      String[] arguments = versionArguments;
+      if (arguments == null) {
+        arguments = StringUtils.split(StringUtils.defaultString(versionCmd), ' ');
+        versionArguments = arguments;
+      }
+      return arguments.clone();
+    }
+
+    @JsonIgnore
+    public Pattern getVersionExtractPattern() {
+      Pattern pattern = versionExtractPattern;
+      if (pattern == null) {
+        pattern = Pattern.compile(versionExtractRegExp);
+        versionExtractPattern = pattern;
+      }
+      return pattern;
+    }
+
+    /**
+     * @return the compiled versionMatchRegExpr, null if there is none
+     */
+    @JsonIgnore
+    public Pattern getVersionMatchPattern() {
+      Pattern pattern = versionMatchPattern;
+      if (pattern == null && StringUtils.isNotBlank(versionMatchRegExpr)) {
+        pattern = Pattern.compile(versionMatchRegExpr);
+        versionMatchPattern = pattern;
+      }
+      return pattern;
+    }
+
+    /**
+     * @return the parsed versionRange, null if there is none
+     */
+    @JsonIgnore
+    public VersionRange getParsedVersionRange() {
+      VersionRange range = parsedVersionRange;
+      if (range == null && StringUtils.isNotBlank(versionRange)) {
+        range = VersionRange.parse(versionRange);
+        parsedVersionRange = range;
+      }
+      return range;
+    }
+
+    /**
+     * Check if the version found on the PATH can be used: it must match versionMatchRegExpr and be in versionRange
+     * when they are set, otherwise any version but an empty one is compatible. An empty version is compatible if
+     * versionMatchRegExpr matches it and there is no versionRange.
+     *
+     * @param version the version found, empty if the tool was not found
+     * @return true if compatible
+     */
+    public boolean isCompatible(String version) {
+      version = StringUtils.defaultString(version);
+      Pattern pattern = getVersionMatchPattern();
+      if (pattern == null && StringUtils.isBlank(version)) {
+        return false;
+      }
+      VersionRange range = getParsedVersionRange();
+      return (pattern == null || pattern.matcher(version).matches())
+              && (range == null || range.matches(version));
+    }
+
+    /**
+     * Compile the regular expressions and parse the version command and range so that errors in the configuration
+     * are reported when it is loaded. A missing versionCmd is accepted, the command is then run without arguments.
+     *
+     * @param name the name of the tool
+     * @throws IOException if the configuration of the tool is not valid
+     */
+    public void validate(String name) throws IOException {
+      getVersionArguments();
+      try {
+        if (versionExtractRegExp == null) {
+          throw new IOException("Tool " + name + ": versionExtractRegExp is missing");
+        }
+        if (getVersionExtractPattern().matcher("").groupCount() < 1) {
+          throw new IOException("Tool " + name + ": versionExtractRegExp '" + versionExtractRegExp + "' must capture the version in a group");
+        }
+        getVersionMatchPattern();
+      } catch (PatternSyntaxException e) {
+        throw new IOException("Tool " + name + ": invalid regular expression '" + e.getPattern() + "': " + e.getDescription(), e);
+      }
+      try {
+        getParsedVersionRange();
+      } catch (IllegalArgumentException e) {
+        throw new IOException("Tool " + name + ": invalid versionRange '" + versionRange + "': " + e.getMessage(), e);
+      }
     }
 
     public String getBaseDir() {
@@ -74,12 +198,24 @@ public class ToolsConfig {
     public void setBaseDir(String baseDir) {
       this.baseDir = baseDir;
     }
+
+    public boolean isParallelUncompress() {
+      return parallelUncompress;
+    }
+
+    public void setParallelUncompress(boolean parallelUncompress) {
+      this.parallelUncompress = parallelUncompress;
+    }
   }
 
   public static class Platform {
     private URL url;
     private String cmdFileName;
+    private String cmdSha256;
     private String dlFileName;
+    private String dlSha256;
+    private boolean streamed;
+    private List<String> includes = new ArrayList<>();
 
     public URL getUrl() {
       return url;
@@ -97,6 +233,14 @@ public class ToolsConfig {
       this.cmdFileName = cmdFileName;
     }
 
+    public String getCmdSha256() {
+      return cmdSha256;
+    }
+
+    public void setCmdSha256(String cmdSha256) {
+      this.cmdSha256 = cmdSha256;
+    }
+
     public String getDlFileName() {
       return dlFileName;
     }
@@ -104,6 +248,30 @@ public class ToolsConfig {
     public void setDlFileName(String dlFileName) {
       this.dlFileName = dlFileName;
     }
+
+    public String getDlSha256() {
+      return dlSha256;
+    }
+
+    public void setDlSha256(String dlSha256) {
+      this.dlSha256 = dlSha256;
+    }
+
+    public boolean isStreamed() {
+      return streamed;
+    }
+
+    public void setStreamed(boolean streamed) {
+      this.streamed = streamed;
+    }
+
+    public List<String> getIncludes() {
+      return includes;
+    }
+
+    public void setIncludes(List<String> includes) {
+      this.includes = includes;
+    }
   }
 
   private Map<String, Tool> tools = new HashMap<>();
@@ -115,4 +283,15 @@ public class ToolsConfig {
   public void setTools(Map<String, Tool> tools) {
     this.tools = tools;
   }
+
+  /**
+   * Check the configuration of all the tools, see {@link Tool#validate(String)}.
+   *
+   * @throws IOException if the configuration of a tool is not valid
+   */
+  public void validate() throws IOException {
+    for (Map.Entry<String, Tool> entry : tools.entrySet()) {
+      entry.getValue().validate(entry.getKey());
+    }
+  }
 }
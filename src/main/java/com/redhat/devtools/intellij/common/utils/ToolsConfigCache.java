@@ -0,0 +1,338 @@
+/*******************************************************************************
+ * Copyright (c) 2020 Red Hat, Inc.
+ * Distributed under license by Red Hat, Inc. All rights reserved.
+ * This program is made available under the terms of the
+ * Eclipse Public License v2.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ * Red Hat, Inc.
+ ******************************************************************************/
+package com.redhat.devtools.intellij.common.utils;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import com.intellij.openapi.diagnostic.Logger;
+import com.redhat.devtools.intellij.common.CommonConstants;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.IOUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caches the tools configurations keyed by URL. Remote configurations are kept in memory and on disk and revalidated
+ * with ETag / If-Modified-Since once the freshness window is over. If the server cannot be reached, the last good copy
+ * is used. Local files are reloaded when they are modified, configurations bundled in jars are loaded once.
+ * The returned configurations are shared and must not be modified.
+ */
+public class ToolsConfigCache {
+    private static final Logger LOGGER = Logger.getInstance(ToolsConfigCache.class);
+
+    private static final long DEFAULT_FRESHNESS = TimeUnit.MINUTES.toMillis(10);
+    private static final int TIMEOUT = (int) TimeUnit.SECONDS.toMillis(10);
+
+    private static final String ETAG = "etag";
+    private static final String LAST_MODIFIED = "lastModified";
+
+    private static final ObjectMapper MAPPER = new ObjectMapper(new YAMLFactory());
+
+    private static ToolsConfigCache INSTANCE;
+
+    public static synchronized ToolsConfigCache getInstance() {
+        if (INSTANCE == null) {
+            INSTANCE = new ToolsConfigCache(Paths.get(CommonConstants.CACHE_FOLDER, "tools-config"), DEFAULT_FRESHNESS);
+        }
+        return INSTANCE;
+    }
+
+    private final Path folder;
+    private final long freshness;
+    private final Map<String, CachedConfig> configs = new ConcurrentHashMap<>();
+    private final Map<String, Object> locks = new ConcurrentHashMap<>();
+
+    public ToolsConfigCache(Path folder, long freshness) {
+        this.folder = folder;
+        this.freshness = freshness;
+    }
+
+    public ToolsConfig load(URL url) throws IOException {
+        String key = url.toString();
+        synchronized (getLock(key)) {
+            if ("http".equals(url.getProtocol()) || "https".equals(url.getProtocol())) {
+                return loadRemote(key, url);
+            }
+            return loadLocal(key, url);
+        }
+    }
+
+    /**
+     * Forget the configuration loaded from the URL, in memory and on disk.
+     */
+    public void invalidate(URL url) throws IOException {
+        String key = url.toString();
+        synchronized (getLock(key)) {
+            configs.remove(key);
+            Files.deleteIfExists(getBodyFile(key));
+            Files.deleteIfExists(getMetadataFile(key));
+        }
+    }
+
+    private Object getLock(String key) {
+        return locks.computeIfAbsent(key, k -> new Object());
+    }
+
+    private ToolsConfig loadLocal(String key, URL url) throws IOException {
+        LocalStamp stamp = getLocalStamp(url);
+        CachedConfig cached = configs.get(key);
+        if (cached != null && stamp != null && stamp.equals(cached.local)) {
+            return cached.config;
+        }
+        ToolsConfig config;
+        try (InputStream input = url.openStream()) {
+            config = parse(MAPPER.readValue(input, ToolsConfig.class), url);
+        }
+        configs.put(key, new CachedConfig(config, stamp));
+        return config;
+    }
+
+    /**
+     * @return the size and modification time of local files, {@link LocalStamp#UNCHANGING} for other resources that
+     * are not expected to change, null if unknown
+     */
+    private LocalStamp getLocalStamp(URL url) {
+        if ("file".equals(url.getProtocol())) {
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(Paths.get(url.toURI()), BasicFileAttributes.class);
+                return new LocalStamp(attributes.size(), attributes.lastModifiedTime());
+            } catch (URISyntaxException | IllegalArgumentException | IOException e) {
+                return null;
+            }
+        }
+        return LocalStamp.UNCHANGING;
+    }
+
+    private ToolsConfig loadRemote(String key, URL url) throws IOException {
+        CachedConfig cached = configs.get(key);
+        if (cached == null) {
+            cached = loadFromDisk(key);
+        }
+        if (cached != null && System.currentTimeMillis() - cached.validated < freshness) {
+            return cached.config;
+        }
+        try {
+            return revalidate(key, url, cached);
+        } catch (IOException e) {
+            if (cached == null) {
+                throw e;
+            }
+            LOGGER.warn("Could not load tools configuration from " + url + ", using the cached copy: " + e.getLocalizedMessage());
+            return cached.config;
+        }
+    }
+
+    private ToolsConfig revalidate(String key, URL url, CachedConfig cached) throws IOException {
+        URLConnection connection = url.openConnection();
+        if (!(connection instanceof HttpURLConnection)) {
+            throw new IOException("Unexpected connection to " + url);
+        }
+        HttpURLConnection http = (HttpURLConnection) connection;
+        http.setConnectTimeout(TIMEOUT);
+        http.setReadTimeout(TIMEOUT);
+        if (cached != null) {
+            if (cached.etag != null) {
+                http.setRequestProperty("If-None-Match", cached.etag);
+            }
+            if (cached.lastModified != null) {
+                http.setRequestProperty("If-Modified-Since", cached.lastModified);
+            }
+        }
+        try {
+            int code = http.getResponseCode();
+            if (code == HttpURLConnection.HTTP_NOT_MODIFIED && cached != null) {
+                long now = System.currentTimeMillis();
+                configs.put(key, new CachedConfig(cached.config, cached.etag, cached.lastModified, now));
+                touch(getMetadataFile(key), now);
+                return cached.config;
+            }
+            if (code != HttpURLConnection.HTTP_OK) {
+                throw new IOException("Unexpected response " + code + " from " + url);
+            }
+            byte[] body;
+            try (InputStream input = http.getInputStream()) {
+                body = IOUtils.toByteArray(input);
+            }
+            ToolsConfig config = parse(MAPPER.readValue(body, ToolsConfig.class), url);
+            CachedConfig fetched = new CachedConfig(config, http.getHeaderField("ETag"), http.getHeaderField("Last-Modified"), System.currentTimeMillis());
+            saveToDisk(key, body, fetched);
+            configs.put(key, fetched);
+            return config;
+        } finally {
+            http.disconnect();
+        }
+    }
+
+    private CachedConfig loadFromDisk(String key) {
+        Path body = getBodyFile(key);
+        Path metadata = getMetadataFile(key);
+        if (!Files.exists(body) || !Files.exists(metadata)) {
+            return null;
+        }
+        try {
+            Properties properties = new Properties();
+            try (Reader reader = Files.newBufferedReader(metadata, StandardCharsets.UTF_8)) {
+                properties.load(reader);
+            }
+            ToolsConfig config = MAPPER.readValue(body.toFile(), ToolsConfig.class);
+            config.validate();
+            CachedConfig cached = new CachedConfig(config, properties.getProperty(ETAG), properties.getProperty(LAST_MODIFIED),
+                    Files.getLastModifiedTime(metadata).toMillis());
+            configs.put(key, cached);
+            return cached;
+        } catch (IOException e) {
+            // corrupted copy, the configuration is loaded again
+            return null;
+        }
+    }
+
+    private void saveToDisk(String key, byte[] body, CachedConfig cached) {
+        try {
+            Files.createDirectories(folder);
+            Properties properties = new Properties();
+            if (cached.etag != null) {
+                properties.setProperty(ETAG, cached.etag);
+            }
+            if (cached.lastModified != null) {
+                properties.setProperty(LAST_MODIFIED, cached.lastModified);
+            }
+            Path tmp = Files.createTempFile(folder, "tools-config", ".tmp");
+            try {
+                Files.write(tmp, body);
+                move(tmp, getBodyFile(key));
+                try (Writer writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                    properties.store(writer, key);
+                }
+                move(tmp, getMetadataFile(key));
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Could not cache tools configuration " + key + ": " + e.getLocalizedMessage());
+        }
+    }
+
+    private void touch(Path file, long time) {
+        try {
+            Files.setLastModifiedTime(file, FileTime.fromMillis(time));
+        } catch (IOException e) {
+            // the copy on disk is revalidated by the next IDE session
+        }
+    }
+
+    private Path getBodyFile(String key) {
+        return folder.resolve(DigestUtils.sha256Hex(key) + ".json");
+    }
+
+    private Path getMetadataFile(String key) {
+        return folder.resolve(DigestUtils.sha256Hex(key) + ".properties");
+    }
+
+    private static ToolsConfig parse(ToolsConfig config, URL url) throws IOException {
+        try {
+            config.validate();
+        } catch (IOException e) {
+            throw new IOException("Invalid tools configuration " + url + ": " + e.getMessage(), e);
+        }
+        return config;
+    }
+
+    private static void move(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static class CachedConfig {
+        private final ToolsConfig config;
+        private final String etag;
+        private final String lastModified;
+        /**
+         * The time the remote configuration was validated.
+         */
+        private final long validated;
+        /**
+         * The stamp of the local file the configuration was loaded from.
+         */
+        private final LocalStamp local;
+
+        private CachedConfig(ToolsConfig config, String etag, String lastModified, long validated) {
+            this.config = config;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.validated = validated;
+            this.local = null;
+        }
+
+        private CachedConfig(ToolsConfig config, LocalStamp local) {
+            this.config = config;
+            this.etag = null;
+            this.lastModified = null;
+            this.validated = 0;
+            this.local = local;
+        }
+    }
+
+    /**
+     * The size and modification time of a local file, compared separately so that two different files cannot have the
+     * same stamp.
+     */
+    private static class LocalStamp {
+        private static final LocalStamp UNCHANGING = new LocalStamp(-1, FileTime.fromMillis(0));
+
+        private final long size;
+        private final FileTime lastModified;
+
+        private LocalStamp(long size, FileTime lastModified) {
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof LocalStamp)) {
+                return false;
+            }
+            LocalStamp that = (LocalStamp) o;
+            return size == that.size && lastModified.equals(that.lastModified);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(size, lastModified);
+        }
+    }
+}
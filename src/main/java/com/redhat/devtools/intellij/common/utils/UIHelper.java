@@ -11,6 +11,7 @@
 package com.redhat.devtools.intellij.common.utils;
 
 import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.ModalityState;
 
 import java.util.function.Supplier;
 
@@ -24,11 +25,15 @@ public class UIHelper {
   }
 
   public static <T> T executeInUI(Supplier<T> supplier) {
+    return executeInUI(supplier, ModalityState.defaultModalityState());
+  }
+
+  public static <T> T executeInUI(Supplier<T> supplier, ModalityState modalityState) {
     if (ApplicationManager.getApplication().isDispatchThread()) {
       return supplier.get();
     } else {
       final Object[] val = new Object[1];
-      ApplicationManager.getApplication().invokeAndWait(() -> val[0] = supplier.get());
+      ApplicationManager.getApplication().invokeAndWait(() -> val[0] = supplier.get(), modalityState);
       return (T) val[0];
     }
   }
@@ -0,0 +1,202 @@
+/*******************************************************************************
+ * Copyright (c) 2020 Red Hat, Inc.
+ * Distributed under license by Red Hat, Inc. All rights reserved.
+ * This program is made available under the terms of the
+ * Eclipse Public License v2.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ * Red Hat, Inc.
+ ******************************************************************************/
+package com.redhat.devtools.intellij.common.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A range of semantic versions such as {@code >=1.2 <2}. Comparators separated by spaces must all match, alternatives
+ * are separated by {@code ||}. The operators are {@code >=}, {@code >}, {@code <=}, {@code <} and {@code =}, a version
+ * without operator must be equal. Missing components are 0 so {@code 1.2} is {@code 1.2.0}, a pre-release such as
+ * {@code 1.2.0-rc1} is lower than the release and {@code 1.2.0-rc2} is lower than {@code 1.2.0-rc10}.
+ */
+public class VersionRange {
+    private static final Pattern CONDITION = Pattern.compile("(>=|<=|>|<|=)?\\s*([^\\s<>=]+)");
+    private static final Pattern VERSION = Pattern.compile("v?(\\d+(?:\\.\\d+)*)(?:-?([^+]*))?(?:\\+.*)?");
+    private static final Pattern NUMBER = Pattern.compile("\\d+");
+    private static final Pattern DIGITS_OR_OTHERS = Pattern.compile("\\d+|\\D+");
+
+    /**
+     * Compare versions by their numeric components, then by pre-release: a version without pre-release is higher. The
+     * dot separated identifiers of pre-releases are compared as in semantic versioning, numeric identifiers are
+     * compared numerically and are lower than the others, and a pre-release with fewer identifiers is lower. The
+     * numbers within identifiers are also compared numerically so that {@code rc2} is lower than {@code rc10}. Build
+     * metadata after + is ignored.
+     */
+    public static final Comparator<String> VERSION_COMPARATOR = VersionRange::compare;
+
+    private final String range;
+    private final List<List<Condition>> alternatives = new ArrayList<>();
+
+    private VersionRange(String range) {
+        this.range = range;
+    }
+
+    /**
+     * @param range the range to parse
+     * @return the parsed range
+     * @throws IllegalArgumentException if the range is empty or contains an invalid version
+     */
+    public static VersionRange parse(String range) {
+        VersionRange result = new VersionRange(range);
+        for (String alternative : range.split("\\|\\|")) {
+            List<Condition> conditions = new ArrayList<>();
+            Matcher matcher = CONDITION.matcher(alternative.trim());
+            while (matcher.find()) {
+                conditions.add(new Condition(matcher.group(1) == null ? "=" : matcher.group(1), parseVersion(matcher.group(2))));
+            }
+            if (conditions.isEmpty()) {
+                throw new IllegalArgumentException("Empty version range '" + range + "'");
+            }
+            result.alternatives.add(conditions);
+        }
+        return result;
+    }
+
+    /**
+     * @param version the version to check
+     * @return true if the version is in the range, false if not or if it is not a version
+     */
+    public boolean matches(String version) {
+        if (!VERSION.matcher(version).matches()) {
+            return false;
+        }
+        Version parsed = parseVersion(version);
+        return alternatives.stream().anyMatch(conditions -> conditions.stream().allMatch(condition -> condition.matches(parsed)));
+    }
+
+    /**
+     * @throws IllegalArgumentException if one of the versions is not a version
+     */
+    public static int compare(String version1, String version2) {
+        return compare(parseVersion(version1), parseVersion(version2));
+    }
+
+    private static int compare(Version v1, Version v2) {
+        for (int i = 0; i < Math.max(v1.numbers.size(), v2.numbers.size()); i++) {
+            int result = Long.compare(v1.get(i), v2.get(i));
+            if (result != 0) {
+                return result;
+            }
+        }
+        if (v1.preRelease.isEmpty() || v2.preRelease.isEmpty()) {
+            return Boolean.compare(v1.preRelease.isEmpty(), v2.preRelease.isEmpty());
+        }
+        return comparePreRelease(v1.preRelease, v2.preRelease);
+    }
+
+    private static int comparePreRelease(String preRelease1, String preRelease2) {
+        String[] identifiers1 = preRelease1.split("\\.");
+        String[] identifiers2 = preRelease2.split("\\.");
+        for (int i = 0; i < Math.min(identifiers1.length, identifiers2.length); i++) {
+            boolean numeric1 = NUMBER.matcher(identifiers1[i]).matches();
+            boolean numeric2 = NUMBER.matcher(identifiers2[i]).matches();
+            int result = numeric1 != numeric2 ? Boolean.compare(numeric2, numeric1) : compareIdentifiers(identifiers1[i], identifiers2[i]);
+            if (result != 0) {
+                return result;
+            }
+        }
+        return Integer.compare(identifiers1.length, identifiers2.length);
+    }
+
+    /**
+     * Compare the runs of digits numerically and the other runs alphabetically.
+     */
+    private static int compareIdentifiers(String identifier1, String identifier2) {
+        Matcher matcher1 = DIGITS_OR_OTHERS.matcher(identifier1);
+        Matcher matcher2 = DIGITS_OR_OTHERS.matcher(identifier2);
+        while (true) {
+            boolean found1 = matcher1.find();
+            boolean found2 = matcher2.find();
+            if (!found1 || !found2) {
+                return Boolean.compare(found1, found2);
+            }
+            String run1 = matcher1.group();
+            String run2 = matcher2.group();
+            int result = Character.isDigit(run1.charAt(0)) && Character.isDigit(run2.charAt(0)) ? compareNumbers(run1, run2) : run1.compareTo(run2);
+            if (result != 0) {
+                return result;
+            }
+        }
+    }
+
+    /**
+     * Compare numbers of any length, without parsing them.
+     */
+    private static int compareNumbers(String number1, String number2) {
+        String stripped1 = number1.replaceFirst("^0+", "");
+        String stripped2 = number2.replaceFirst("^0+", "");
+        int result = Integer.compare(stripped1.length(), stripped2.length());
+        return result != 0 ? result : stripped1.compareTo(stripped2);
+    }
+
+    private static Version parseVersion(String version) {
+        Matcher matcher = VERSION.matcher(version);
+        if (!matcher.matches()) {
+            throw new IllegalArgumentException("Invalid version '" + version + "'");
+        }
+        List<Long> numbers = new ArrayList<>();
+        for (String number : matcher.group(1).split("\\.")) {
+            numbers.add(Long.parseLong(number));
+        }
+        return new Version(numbers, matcher.group(2) == null ? "" : matcher.group(2));
+    }
+
+    @Override
+    public String toString() {
+        return range;
+    }
+
+    private static class Version {
+        private final List<Long> numbers;
+        private final String preRelease;
+
+        private Version(List<Long> numbers, String preRelease) {
+            this.numbers = Collections.unmodifiableList(numbers);
+            this.preRelease = preRelease;
+        }
+
+        private long get(int index) {
+            return index < numbers.size() ? numbers.get(index) : 0;
+        }
+    }
+
+    private static class Condition {
+        private final String operator;
+        private final Version version;
+
+        private Condition(String operator, Version version) {
+            this.operator = operator;
+            this.version = version;
+        }
+
+        private boolean matches(Version other) {
+            int result = compare(other, version);
+            switch (operator) {
+                case ">=":
+                    return result >= 0;
+                case ">":
+                    return result > 0;
+                case "<=":
+                    return result <= 0;
+                case "<":
+                    return result < 0;
+                default:
+                    return result == 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,56 @@
+/*******************************************************************************
+ * Copyright (c) 2020 Red Hat, Inc.
+ * Distributed under license by Red Hat, Inc. All rights reserved.
+ * This program is made available under the terms of the
+ * Eclipse Public License v2.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ * Red Hat, Inc.
+ ******************************************************************************/
+package com.redhat.devtools.intellij.common.utils;
+
+import org.junit.Test;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ArchiveFormatTest {
+    private ArchiveFormat detect(String resource) throws IOException {
+        try (InputStream input = new BufferedInputStream(ArchiveFormatTest.class.getResourceAsStream(resource))) {
+            int first = peek(input);
+            ArchiveFormat format = ArchiveFormat.detect(input);
+            assertEquals(first, input.read());
+            return format;
+        }
+    }
+
+    private int peek(InputStream input) throws IOException {
+        input.mark(1);
+        int first = input.read();
+        input.reset();
+        return first;
+    }
+
+    @Test
+    public void shouldDetectCompressions() throws IOException {
+        assertEquals(ArchiveFormat.GZIP, detect("/tkn.tgz"));
+        assertEquals(ArchiveFormat.BZIP2, detect("/tkn.tar.bz2"));
+        assertEquals(ArchiveFormat.XZ, detect("/tkn.tar.xz"));
+        assertEquals(ArchiveFormat.ZSTD, detect("/tkn.tar.zst"));
+    }
+
+    @Test
+    public void shouldDetectTar() throws IOException {
+        assertEquals(ArchiveFormat.TAR, detect("/tkn.tar"));
+    }
+
+    @Test
+    public void shouldNotDetectRawContent() throws IOException {
+        assertNull(detect("/tkn"));
+    }
+}
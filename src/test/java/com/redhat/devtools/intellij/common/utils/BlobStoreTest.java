@@ -0,0 +1,189 @@
+/*******************************************************************************
+ * Copyright (c) 2020 Red Hat, Inc.
+ * Distributed under license by Red Hat, Inc. All rights reserved.
+ * This program is made available under the terms of the
+ * Eclipse Public License v2.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ * Red Hat, Inc.
+ ******************************************************************************/
+package com.redhat.devtools.intellij.common.utils;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+public class BlobStoreTest {
+    private static final String CONTENT = "#!/bin/sh\necho tkn\n";
+    private static final String DIGEST = "1a5d1e5ef58b6e1dd7f56a1e1a1aa86a2c93d5d9f1f0ac0f1e3a1f0c8b2a1d59";
+
+    private Path folder;
+    private BlobStore store;
+    private String digest;
+
+    @Before
+    public void setUp() throws IOException {
+        folder = Files.createTempDirectory("blob-store");
+        store = new BlobStore(folder.resolve("blobs"));
+        Path file = folder.resolve("content");
+        Files.write(file, CONTENT.getBytes(StandardCharsets.UTF_8));
+        digest = BlobStore.sha256(file);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(folder.toFile());
+    }
+
+    private Path newCommand(String name) throws IOException {
+        Path file = folder.resolve(name);
+        Files.write(file, CONTENT.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    @Test
+    public void shouldLinkStoredBlob() throws IOException {
+        store.put(newCommand("tkn"), digest);
+        Path first = folder.resolve("tool1").resolve("tkn");
+        Path second = folder.resolve("tool2").resolve("tkn");
+        assertTrue(store.link(digest, first));
+        assertTrue(store.link(digest, second));
+        assertEquals(CONTENT, new String(Files.readAllBytes(second), StandardCharsets.UTF_8));
+        assertTrue(store.verify(first, digest));
+    }
+
+    @Test
+    public void shouldLinkReadOnlyBlob() throws IOException {
+        assumeTrue(FileSystems.getDefault().supportedFileAttributeViews().contains("posix"));
+        Path blob = store.put(newCommand("tkn"), digest);
+        Path installed = folder.resolve("tool").resolve("tkn");
+        assertTrue(store.link(digest, installed));
+        assertEquals(PosixFilePermissions.fromString("r-xr-xr-x"), Files.getPosixFilePermissions(installed));
+        assertEquals(PosixFilePermissions.fromString("r-xr-xr-x"), Files.getPosixFilePermissions(blob));
+    }
+
+    @Test
+    public void shouldNotLinkUnknownBlob() throws IOException {
+        assertFalse(store.link(DIGEST, folder.resolve("tkn")));
+    }
+
+    @Test(expected = IOException.class)
+    public void shouldRejectFileNotMatchingDigest() throws IOException {
+        store.put(newCommand("tkn"), DIGEST);
+    }
+
+    @Test
+    public void shouldDetectCorruptedFile() throws IOException {
+        store.put(newCommand("tkn"), digest);
+        Path installed = folder.resolve("tool").resolve("tkn");
+        store.link(digest, installed);
+        assertTrue(store.verify(installed, digest));
+        Files.delete(installed);
+        Files.write(installed, "truncated".getBytes(StandardCharsets.UTF_8));
+        assertFalse(store.verify(installed, digest));
+    }
+
+    @Test
+    public void shouldCollectUnreferencedBlobs() throws IOException {
+        Path blob = store.put(newCommand("tkn"), digest);
+        Path installed = folder.resolve("tool").resolve("tkn");
+        store.link(digest, installed);
+        age(blob);
+        store.gc();
+        assertTrue(Files.exists(blob));
+        Files.delete(installed);
+        age(blob);
+        store.gc();
+        assertFalse(Files.exists(blob));
+    }
+
+    @Test
+    public void shouldReuseVerificationOfPreviousSession() throws IOException {
+        Path file = newCommand("tkn");
+        assertTrue(store.verify(file, digest));
+        // same size and modification time: a new session trusts the recorded verification without hashing
+        FileTime lastModified = Files.getLastModifiedTime(file);
+        Files.write(file, CONTENT.toUpperCase().getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(file, lastModified);
+        assertTrue(new BlobStore(folder.resolve("blobs")).verify(file, digest));
+    }
+
+    @Test
+    public void shouldVerifyAgainIfFileChanged() throws IOException {
+        Path file = newCommand("tkn");
+        assertTrue(store.verify(file, digest));
+        Files.write(file, "changed".getBytes(StandardCharsets.UTF_8));
+        assertFalse(new BlobStore(folder.resolve("blobs")).verify(file, digest));
+    }
+
+    @Test
+    public void shouldIgnoreCorruptedVerifications() throws IOException {
+        Path file = newCommand("tkn");
+        Files.createDirectories(folder.resolve("blobs"));
+        Files.write(folder.resolve("blobs").resolve(".verified"), "\\u00zz".getBytes(StandardCharsets.UTF_8));
+        assertTrue(store.verify(file, digest));
+        assertTrue(new BlobStore(folder.resolve("blobs")).verify(file, digest));
+    }
+
+    @Test
+    public void shouldForgetVerificationOfDeletedFilesOnGc() throws IOException {
+        Path file = newCommand("tkn");
+        store.verify(file, digest);
+        Files.delete(file);
+        store.gc();
+        assertFalse(new String(Files.readAllBytes(folder.resolve("blobs").resolve(".verified")), StandardCharsets.UTF_8)
+                .contains("tkn"));
+    }
+
+    @Test
+    public void shouldShareLockBetweenStoresOfSameFolder() throws Exception {
+        BlobStore other = new BlobStore(folder.resolve("blobs"));
+        store.put(newCommand("tkn"), digest);
+        List<Throwable> failures = Collections.synchronizedList(new ArrayList<>());
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            BlobStore current = i % 2 == 0 ? store : other;
+            Path target = folder.resolve("tool" + i).resolve("tkn");
+            Thread thread = new Thread(() -> {
+                try {
+                    for (int j = 0; j < 20; j++) {
+                        assertTrue(current.link(digest, target));
+                        current.gc();
+                    }
+                } catch (Throwable e) {
+                    failures.add(e);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join(10000);
+        }
+        assertEquals(Collections.emptyList(), failures);
+    }
+
+    private void age(Path blob) throws IOException {
+        FileTime old = FileTime.fromMillis(System.currentTimeMillis() - 2 * 60 * 60 * 1000);
+        Files.setLastModifiedTime(blob, old);
+        Files.setLastModifiedTime(blob.resolveSibling(blob.getFileName() + ".refs"), old);
+    }
+}
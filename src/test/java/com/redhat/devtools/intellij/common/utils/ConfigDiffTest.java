@@ -0,0 +1,105 @@
+/*******************************************************************************
+ * Copyright (c) 2020 Red Hat, Inc.
+ * Distributed under license by Red Hat, Inc. All rights reserved.
+ * This program is made available under the terms of the
+ * Eclipse Public License v2.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ * Red Hat, Inc.
+ ******************************************************************************/
+package com.redhat.devtools.intellij.common.utils;
+
+import io.fabric8.kubernetes.api.model.Config;
+import io.fabric8.kubernetes.api.model.ConfigBuilder;
+import io.fabric8.kubernetes.client.internal.KubeConfigUtils;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ConfigDiffTest {
+    private static final String CONFIG = "current-context: dev\n" +
+            "clusters:\n" +
+            "- name: dev\n" +
+            "  cluster:\n" +
+            "    server: https://dev:6443\n" +
+            "- name: prod\n" +
+            "  cluster:\n" +
+            "    server: https://prod:6443\n" +
+            "contexts:\n" +
+            "- name: dev\n" +
+            "  context:\n" +
+            "    cluster: dev\n" +
+            "    namespace: dev-ns\n" +
+            "    user: dev\n" +
+            "- name: prod\n" +
+            "  context:\n" +
+            "    cluster: prod\n" +
+            "    namespace: prod-ns\n" +
+            "    user: prod\n" +
+            "users:\n" +
+            "- name: dev\n" +
+            "  user:\n" +
+            "    token: dev-token\n" +
+            "- name: prod\n" +
+            "  user:\n" +
+            "    token: prod-token\n";
+
+    @Test
+    public void shouldBeEmptyForSameConfig() throws IOException {
+        ConfigDiff diff = ConfigDiff.compute(parse(CONFIG), parse(CONFIG));
+        assertTrue(diff.isEmpty());
+    }
+
+    @Test
+    public void shouldReportOnlyRefreshedToken() throws IOException {
+        ConfigDiff diff = ConfigDiff.compute(parse(CONFIG), parse(CONFIG.replace("prod-token", "new-token")));
+        assertEquals(Arrays.asList("USER_MODIFIED prod"), toStrings(diff.getEvents()));
+    }
+
+    @Test
+    public void shouldReportCurrentContextAndNamespace() throws IOException {
+        Config previous = parse(CONFIG);
+        Config current = new ConfigBuilder(previous).build();
+        current.setCurrentContext("prod");
+        ConfigDiff diff = ConfigDiff.compute(previous, current);
+        assertEquals(Arrays.asList("CURRENT_CONTEXT_CHANGED prod", "NAMESPACE_CHANGED prod"), toStrings(diff.getEvents()));
+        ConfigDiff.Event<?> namespace = diff.getEvents(ConfigDiff.Kind.NAMESPACE_CHANGED).get(0);
+        assertEquals("dev-ns", namespace.getPrevious());
+        assertEquals("prod-ns", namespace.getCurrent());
+    }
+
+    @Test
+    public void shouldReportAddedRemovedAndModifiedEntries() throws IOException {
+        String modified = CONFIG
+                .replace("- name: prod\n  cluster:\n    server: https://prod:6443\n", "- name: test\n  cluster:\n    server: https://test:6443\n")
+                .replace("namespace: dev-ns", "namespace: other-ns");
+        ConfigDiff diff = ConfigDiff.compute(parse(CONFIG), parse(modified));
+        assertEquals(Arrays.asList("NAMESPACE_CHANGED dev", "CONTEXT_MODIFIED dev", "CLUSTER_REMOVED prod", "CLUSTER_ADDED test"),
+                toStrings(diff.getEvents()));
+        assertEquals(Arrays.asList("CLUSTER_ADDED test"), toStrings(diff.getEvents(ConfigDiff.Kind.CLUSTER_ADDED)));
+    }
+
+    @Test
+    public void shouldReportEverythingAddedWithoutPreviousConfig() throws IOException {
+        ConfigDiff diff = ConfigDiff.compute(null, parse(CONFIG));
+        assertEquals(2, diff.getEvents(ConfigDiff.Kind.CONTEXT_ADDED).size());
+        assertEquals(2, diff.getEvents(ConfigDiff.Kind.CLUSTER_ADDED).size());
+        assertEquals(2, diff.getEvents(ConfigDiff.Kind.USER_ADDED).size());
+        assertEquals(1, diff.getEvents(ConfigDiff.Kind.CURRENT_CONTEXT_CHANGED).size());
+    }
+
+    private static Config parse(String content) throws IOException {
+        return KubeConfigUtils.parseConfigFromString(content);
+    }
+
+    private static List<String> toStrings(List<ConfigDiff.Event<?>> events) {
+        return events.stream().map(ConfigDiff.Event::toString).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,236 @@
+/*******************************************************************************
+ * Copyright (c) 2020 Red Hat, Inc.
+ * Distributed under license by Red Hat, Inc. All rights reserved.
+ * This program is made available under the terms of the
+ * Eclipse Public License v2.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ * Red Hat, Inc.
+ ******************************************************************************/
+package com.redhat.devtools.intellij.common.utils;
+
+import io.fabric8.kubernetes.api.model.Config;
+import io.fabric8.kubernetes.api.model.Context;
+import io.fabric8.kubernetes.api.model.NamedContext;
+import io.fabric8.kubernetes.client.internal.KubeConfigUtils;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ConfigHelperTest {
+    private Path folder;
+    private Path dev;
+    private Path prod;
+
+    @Before
+    public void setup() throws IOException {
+        folder = Files.createTempDirectory("kubeconfig");
+        dev = write("dev", "current-context: dev\n" +
+                "clusters:\n" +
+                "- name: dev\n" +
+                "  cluster:\n" +
+                "    server: https://dev:6443\n" +
+                "contexts:\n" +
+                "- name: dev\n" +
+                "  context:\n" +
+                "    cluster: dev\n" +
+                "    namespace: dev-ns\n" +
+                "    user: dev\n" +
+                "users:\n" +
+                "- name: dev\n" +
+                "  user:\n" +
+                "    token: dev-token\n");
+        prod = write("prod", "current-context: prod\n" +
+                "clusters:\n" +
+                "- name: prod\n" +
+                "  cluster:\n" +
+                "    server: https://prod:6443\n" +
+                "contexts:\n" +
+                "- name: dev\n" +
+                "  context:\n" +
+                "    cluster: prod\n" +
+                "- name: prod\n" +
+                "  context:\n" +
+                "    cluster: prod\n" +
+                "    user: prod\n" +
+                "users:\n" +
+                "- name: prod\n" +
+                "  user:\n" +
+                "    token: prod-token\n");
+    }
+
+    @After
+    public void cleanup() throws IOException {
+        FileUtils.deleteDirectory(folder.toFile());
+    }
+
+    @Test
+    public void shouldParseKubeConfigPaths() {
+        String value = dev + File.pathSeparator + File.pathSeparator + prod + File.pathSeparator + dev;
+        assertEquals(Arrays.asList(dev, prod), ConfigHelper.getKubeConfigPaths(value));
+    }
+
+    @Test
+    public void shouldMergeFirstDefinitionWins() throws IOException {
+        Config config = ConfigHelper.loadKubeConfig(Arrays.asList(dev, folder.resolve("missing"), prod));
+        assertEquals("dev", config.getCurrentContext());
+        assertEquals(Arrays.asList("dev", "prod"), getContextNames(config));
+        Context context = KubeConfigUtils.getCurrentContext(config);
+        assertEquals("dev", context.getCluster());
+        assertEquals("dev-ns", context.getNamespace());
+        assertEquals(2, config.getClusters().size());
+        assertEquals(2, config.getUsers().size());
+    }
+
+    @Test
+    public void shouldReturnCopies() throws IOException {
+        List<Path> paths = Arrays.asList(dev, prod);
+        ConfigHelper.loadKubeConfig(paths).setCurrentContext("prod");
+        assertEquals("dev", ConfigHelper.loadKubeConfig(paths).getCurrentContext());
+    }
+
+    @Test
+    public void shouldReparseModifiedFile() throws IOException {
+        List<Path> paths = Arrays.asList(dev, prod);
+        assertEquals("dev", ConfigHelper.loadKubeConfig(paths).getCurrentContext());
+        String content = new String(Files.readAllBytes(dev), StandardCharsets.UTF_8);
+        Files.write(dev, content.replace("current-context: dev\n", "").getBytes(StandardCharsets.UTF_8));
+        assertEquals("prod", ConfigHelper.loadKubeConfig(paths).getCurrentContext());
+    }
+
+    @Test
+    public void shouldSaveEntriesToOriginFiles() throws IOException {
+        List<Path> paths = Arrays.asList(dev, prod);
+        Config config = ConfigHelper.loadKubeConfig(paths);
+        config.setCurrentContext("prod");
+        config.getContexts().stream()
+                .filter(context -> "prod".equals(context.getName()))
+                .forEach(context -> context.getContext().setNamespace("prod-ns"));
+        config.getContexts().add(new NamedContext(new Context(), "new"));
+        ConfigHelper.saveKubeConfig(config, paths);
+
+        Config devConfig = KubeConfigUtils.parseConfig(dev.toFile());
+        assertEquals("prod", devConfig.getCurrentContext());
+        assertEquals(Arrays.asList("dev", "new"), getContextNames(devConfig));
+        Config prodConfig = KubeConfigUtils.parseConfig(prod.toFile());
+        assertEquals("prod", prodConfig.getCurrentContext());
+        assertEquals(Arrays.asList("dev", "prod"), getContextNames(prodConfig));
+        assertTrue(prodConfig.getContexts().stream()
+                .anyMatch(context -> "prod-ns".equals(context.getContext().getNamespace())));
+
+        Config reloaded = ConfigHelper.loadKubeConfig(paths);
+        assertEquals("prod", reloaded.getCurrentContext());
+        assertEquals(Arrays.asList("dev", "new", "prod"), getContextNames(reloaded));
+    }
+
+    @Test
+    public void shouldDeleteEntriesFromOriginFiles() throws IOException {
+        List<Path> paths = Arrays.asList(dev, prod);
+        Config config = ConfigHelper.loadKubeConfig(paths);
+        config.getContexts().removeIf(context -> "prod".equals(context.getName()));
+        ConfigHelper.saveKubeConfig(config, paths);
+        Config prodConfig = KubeConfigUtils.parseConfig(prod.toFile());
+        assertEquals(Arrays.asList("dev"), getContextNames(prodConfig));
+        assertFalse(getContextNames(ConfigHelper.loadKubeConfig(paths)).contains("prod"));
+        assertNull(KubeConfigUtils.getCurrentContext(prodConfig));
+    }
+
+    @Test
+    public void shouldWaitForKubectlLock() throws IOException, InterruptedException {
+        List<Path> paths = Arrays.asList(dev, prod);
+        Config config = ConfigHelper.loadKubeConfig(paths);
+        config.setCurrentContext("prod");
+        Path lock = Files.createFile(folder.resolve("dev.lock"));
+        Thread kubectl = new Thread(() -> {
+            try {
+                Thread.sleep(300);
+                Files.delete(lock);
+            } catch (IOException | InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        kubectl.start();
+        ConfigHelper.saveKubeConfig(config, paths);
+        kubectl.join();
+        assertEquals("prod", KubeConfigUtils.parseConfig(dev.toFile()).getCurrentContext());
+        try (Stream<Path> files = Files.list(folder)) {
+            assertEquals(Arrays.asList("dev", "prod"), files.map(path -> path.getFileName().toString()).sorted().collect(Collectors.toList()));
+        }
+    }
+
+    @Test
+    public void shouldLoadSavedConfigAsParsedFromFile() throws IOException {
+        List<Path> paths = Arrays.asList(dev);
+        Config config = ConfigHelper.loadKubeConfig(paths);
+        config.setCurrentContext("other");
+        // defaults applied when the file is parsed
+        config.setApiVersion(null);
+        config.setKind(null);
+        ConfigHelper.saveKubeConfig(config, paths);
+        assertEquals(KubeConfigUtils.parseConfig(dev.toFile()), ConfigHelper.loadKubeConfig(paths));
+    }
+
+    @Test
+    public void shouldNotWriteUnchangedFile() throws IOException {
+        List<Path> paths = Arrays.asList(dev);
+        Config config = ConfigHelper.loadKubeConfig(paths);
+        config.setCurrentContext("other");
+        ConfigHelper.saveKubeConfig(config, paths);
+        FileTime saved = FileTime.fromMillis(1000);
+        Files.setLastModifiedTime(dev, saved);
+        ConfigHelper.saveKubeConfig(ConfigHelper.loadKubeConfig(paths), paths);
+        assertEquals(saved, Files.getLastModifiedTime(dev));
+        assertEquals("other", ConfigHelper.loadKubeConfig(paths).getCurrentContext());
+    }
+
+    @Test
+    public void shouldNotReportMissingKubeConfigAsParsable() {
+        assertFalse(ConfigHelper.isKubeConfigParsable(folder.resolve("missing").toFile()));
+    }
+
+    @Test
+    public void shouldReportKubeConfigParsable() throws IOException {
+        assertTrue(ConfigHelper.isKubeConfigParsable(dev.toFile()));
+        assertFalse(ConfigHelper.isKubeConfigParsable(write("invalid", "clusters: [").toFile()));
+    }
+
+    @Test
+    public void shouldNotKeepParsedConfigOfFilesNotLoaded() throws IOException {
+        Path other = write("other", new String(Files.readAllBytes(dev), StandardCharsets.UTF_8));
+        ConfigHelper.loadKubeConfig(Arrays.asList(dev, prod));
+        assertTrue(ConfigHelper.isKubeConfigParsable(other.toFile()));
+        assertFalse(ConfigHelper.getSnapshotPaths().contains(other.toAbsolutePath()));
+        assertTrue(ConfigHelper.getSnapshotPaths().contains(dev.toAbsolutePath()));
+        ConfigHelper.loadKubeConfig(Arrays.asList(prod));
+        assertFalse(ConfigHelper.getSnapshotPaths().contains(dev.toAbsolutePath()));
+        assertTrue(ConfigHelper.getSnapshotPaths().contains(prod.toAbsolutePath()));
+    }
+
+    private Path write(String name, String content) throws IOException {
+        Path path = folder.resolve(name);
+        Files.write(path, content.getBytes(StandardCharsets.UTF_8));
+        return path;
+    }
+
+    private static List<String> getContextNames(Config config) {
+        return config.getContexts().stream().map(NamedContext::getName).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,99 @@
+/*******************************************************************************
+ * Copyright (c) 2020 Red Hat, Inc.
+ * Distributed under license by Red Hat, Inc. All rights reserved.
+ * This program is made available under the terms of the
+ * Eclipse Public License v2.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ * Red Hat, Inc.
+ ******************************************************************************/
+package com.redhat.devtools.intellij.common.utils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+public class ConfigWatchServiceTest {
+    private static final long DEBOUNCE = 500;
+
+    private Path folder;
+    private ConfigWatchService service;
+
+    @Before
+    public void setup() throws IOException {
+        folder = Files.createTempDirectory("config-watch");
+        service = new ConfigWatchService(DEBOUNCE);
+    }
+
+    @After
+    public void cleanup() throws IOException {
+        service.dispose();
+        Files.deleteIfExists(folder.resolve("config"));
+        Files.deleteIfExists(folder.resolve("other"));
+        Files.deleteIfExists(folder);
+    }
+
+    @Test
+    public void shouldCoalesceBurstOfChanges() throws IOException, InterruptedException {
+        Path config = folder.resolve("config");
+        AtomicInteger changes = new AtomicInteger();
+        service.register(config, changes::incrementAndGet);
+        for (int i = 0; i < 5; i++) {
+            Files.write(config, ("version " + i).getBytes(StandardCharsets.UTF_8));
+        }
+        waitFor(changes, 1);
+        Thread.sleep(2 * DEBOUNCE);
+        assertEquals(1, changes.get());
+    }
+
+    @Test
+    public void shouldOnlyNotifyChangedFile() throws IOException, InterruptedException {
+        AtomicInteger configChanges = new AtomicInteger();
+        AtomicInteger otherChanges = new AtomicInteger();
+        service.register(folder.resolve("config"), configChanges::incrementAndGet);
+        ConfigWatchService.Registration other = service.register(folder.resolve("other"), otherChanges::incrementAndGet);
+        Files.write(folder.resolve("other"), "other".getBytes(StandardCharsets.UTF_8));
+        waitFor(otherChanges, 1);
+        assertEquals(0, configChanges.get());
+        other.close();
+        Files.write(folder.resolve("other"), "closed".getBytes(StandardCharsets.UTF_8));
+        Files.write(folder.resolve("config"), "config".getBytes(StandardCharsets.UTF_8));
+        waitFor(configChanges, 1);
+        assertEquals(1, otherChanges.get());
+    }
+
+    @Test
+    public void shouldDetectChangesByPolling() throws IOException, InterruptedException {
+        ConfigWatchService polling = new ConfigWatchService(DEBOUNCE, ConfigWatchService.Strategy.POLLING);
+        try {
+            Path config = folder.resolve("config");
+            AtomicInteger changes = new AtomicInteger();
+            polling.register(config, changes::incrementAndGet);
+            Files.write(config, "created".getBytes(StandardCharsets.UTF_8));
+            waitFor(changes, 1);
+            Files.delete(config);
+            waitFor(changes, 2);
+        } finally {
+            polling.dispose();
+        }
+    }
+
+    private static void waitFor(AtomicInteger counter, int expected) throws InterruptedException {
+        // the polling watch service of the JDK on macOS can take several seconds to report changes
+        long timeout = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (counter.get() < expected && System.nanoTime() < timeout) {
+            Thread.sleep(50);
+        }
+        assertEquals(expected, counter.get());
+    }
+}
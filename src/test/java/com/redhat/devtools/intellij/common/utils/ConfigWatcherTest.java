@@ -0,0 +1,166 @@
+/*******************************************************************************
+ * Copyright (c) 2020 Red Hat, Inc.
+ * Distributed under license by Red Hat, Inc. All rights reserved.
+ * This program is made available under the terms of the
+ * Eclipse Public License v2.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ * Red Hat, Inc.
+ ******************************************************************************/
+package com.redhat.devtools.intellij.common.utils;
+
+import io.fabric8.kubernetes.api.model.Config;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ConfigWatcherTest {
+    private Path folder;
+    private Path file;
+    private ConfigWatchService service;
+    private final AtomicReference<String> context = new AtomicReference<>("a");
+
+    @Before
+    public void setUp() throws IOException {
+        folder = Files.createTempDirectory("config-watcher");
+        file = folder.resolve("config");
+        service = new ConfigWatchService(100, ConfigWatchService.Strategy.POLLING);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        service.dispose();
+        FileUtils.deleteDirectory(folder.toFile());
+    }
+
+    @Test
+    public void shouldComputeDiffFromLoadedConfigEvenIfListenerModifiedIt() throws IOException, InterruptedException {
+        List<ConfigDiff> diffs = new CopyOnWriteArrayList<>();
+        ConfigWatcher watcher = newWatcher((source, config) -> config.setCurrentContext("modified by listener"));
+        watcher.addDiffListener((source, diff) -> diffs.add(diff));
+        watcher.start();
+        try {
+            change("b");
+            waitFor(diffs, 1);
+            change("c");
+            waitFor(diffs, 2);
+            ConfigDiff.Event<?> event = diffs.get(1).getEvents().get(0);
+            assertEquals(ConfigDiff.Kind.CURRENT_CONTEXT_CHANGED, event.getKind());
+            assertEquals("b", event.getPrevious());
+            assertEquals("c", event.getCurrent());
+        } finally {
+            watcher.close();
+        }
+    }
+
+    @Test
+    public void shouldWatchUntilInterruptedWhenRun() throws IOException, InterruptedException {
+        CountDownLatch registered = new CountDownLatch(1);
+        service.dispose();
+        service = new ConfigWatchService(100, ConfigWatchService.Strategy.POLLING) {
+            @Override
+            public synchronized Registration register(Path file, Runnable onChange) throws IOException {
+                Registration registration = super.register(file, onChange);
+                registered.countDown();
+                return registration;
+            }
+        };
+        List<Config> updates = new CopyOnWriteArrayList<>();
+        Thread thread = new Thread(newWatcher((source, config) -> updates.add(config)));
+        thread.start();
+        assertTrue(registered.await(10, TimeUnit.SECONDS));
+        change("b");
+        waitFor(updates, 1);
+        assertTrue(thread.isAlive());
+        thread.interrupt();
+        thread.join(5000);
+        assertFalse(thread.isAlive());
+        change("c");
+        Thread.sleep(500);
+        assertEquals(1, updates.size());
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void shouldOnlyReloadForChangesAcceptedBySubclass() throws IOException, InterruptedException {
+        List<Config> updates = new CopyOnWriteArrayList<>();
+        Path other = folder.resolve("other");
+        ConfigWatcher watcher = new ConfigWatcher(Arrays.asList(file, other), (source, config) -> updates.add(config)) {
+            @Override
+            protected ConfigWatchService getWatchService() {
+                return service;
+            }
+
+            @Override
+            protected boolean isConfigPath(WatchEvent<?> event) {
+                return event.context().equals(file.getFileName());
+            }
+
+            @Override
+            protected Config loadConfig() {
+                Config config = new Config();
+                config.setCurrentContext(context.get());
+                return config;
+            }
+        };
+        watcher.start();
+        try {
+            context.set("b");
+            Files.write(other, "other".getBytes(StandardCharsets.UTF_8));
+            Thread.sleep(500);
+            assertEquals(0, updates.size());
+            change("c");
+            waitFor(updates, 1);
+        } finally {
+            watcher.close();
+        }
+    }
+
+    private ConfigWatcher newWatcher(ConfigWatcher.Listener listener) {
+        return new ConfigWatcher(Collections.singletonList(file), listener) {
+            @Override
+            protected ConfigWatchService getWatchService() {
+                return service;
+            }
+
+            @Override
+            protected Config loadConfig() {
+                Config config = new Config();
+                config.setCurrentContext(context.get());
+                return config;
+            }
+        };
+    }
+
+    private void change(String currentContext) throws IOException {
+        context.set(currentContext);
+        Files.write(file, currentContext.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void waitFor(List<?> list, int expected) throws InterruptedException {
+        long timeout = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (list.size() < expected && System.nanoTime() < timeout) {
+            Thread.sleep(10);
+        }
+        assertEquals(expected, list.size());
+    }
+}
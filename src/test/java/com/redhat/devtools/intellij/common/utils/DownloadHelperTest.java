@@ -1,27 +1,47 @@
 package com.redhat.devtools.intellij.common.utils;
 
+import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.ui.Messages;
 import com.intellij.openapi.ui.TestDialog;
+import com.intellij.openapi.util.SystemInfo;
 import com.intellij.testFramework.LightPlatformTestCase;
 import org.apache.commons.io.FileUtils;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class DownloadHelperTest extends LightPlatformTestCase {
     private TestDialog previous;
+    private Path indexFolder;
     @Override
     public void setUp() throws Exception {
         super.setUp();
         previous = Messages.setTestDialog(TestDialog.OK);
         FileUtils.deleteDirectory(new File("cache"));
+        indexFolder = Files.createTempDirectory("tools-index");
+        ToolIndex.setInstance(new ToolIndex(indexFolder.resolve("tools-index.json")));
     }
 
     @Override
     protected void tearDown() throws Exception {
         super.tearDown();
         Messages.setTestDialog(previous);
+        DownloadHelper.getInstance().setDownloadPolicy(DownloadPolicy.PROMPT);
         FileUtils.deleteDirectory(new File("cache"));
+        ToolIndex.setInstance(null);
+        FileUtils.deleteDirectory(indexFolder.toFile());
     }
 
     public void testThatGZIsDownloaded() throws IOException {
@@ -37,4 +57,185 @@ public class DownloadHelperTest extends LightPlatformTestCase {
         assertEquals("." + File.separatorChar + "cache" + File.separatorChar + "0.5.0" + File.separatorChar + "tkn", cmd);
         assertEquals(17, new File(cmd).length());
     }
+
+    public void testThatTarIsDownloaded() throws IOException {
+        String cmd = DownloadHelper.getInstance().downloadIfRequired("tkn", DownloadHelperTest.class.getResource("/tkn-test-tar.json"));
+        assertNotNull(cmd);
+        assertEquals("." + File.separatorChar + "cache" + File.separatorChar + "0.5.0" + File.separatorChar + "tkn", cmd);
+        assertEquals(17, new File(cmd).length());
+    }
+
+    public void testThatTarBZ2IsDownloaded() throws IOException {
+        String cmd = DownloadHelper.getInstance().downloadIfRequired("tkn", DownloadHelperTest.class.getResource("/tkn-test-tar.bz2.json"));
+        assertNotNull(cmd);
+        assertEquals("." + File.separatorChar + "cache" + File.separatorChar + "0.5.0" + File.separatorChar + "tkn", cmd);
+        assertEquals(17, new File(cmd).length());
+    }
+
+    public void testThatMultiMemberTarGZIsDownloaded() throws IOException {
+        String cmd = DownloadHelper.getInstance().downloadIfRequired("tkn", DownloadHelperTest.class.getResource("/tkn-test-multi-tar.gz.json"));
+        assertNotNull(cmd);
+        assertEquals("." + File.separatorChar + "cache" + File.separatorChar + "0.5.0" + File.separatorChar + "tkn", cmd);
+        assertEquals(17, new File(cmd).length());
+    }
+
+    public void testThatMultiMemberTarBZ2IsDownloaded() throws IOException {
+        String cmd = DownloadHelper.getInstance().downloadIfRequired("tkn", DownloadHelperTest.class.getResource("/tkn-test-multi-tar.bz2.json"));
+        assertNotNull(cmd);
+        assertEquals("." + File.separatorChar + "cache" + File.separatorChar + "0.5.0" + File.separatorChar + "tkn", cmd);
+        assertEquals(17, new File(cmd).length());
+    }
+
+    public void testThatTarXZIsDownloaded() throws IOException {
+        String cmd = DownloadHelper.getInstance().downloadIfRequired("tkn", DownloadHelperTest.class.getResource("/tkn-test-tar.xz.json"));
+        assertNotNull(cmd);
+        assertEquals("." + File.separatorChar + "cache" + File.separatorChar + "0.5.0" + File.separatorChar + "tkn", cmd);
+        assertEquals(17, new File(cmd).length());
+    }
+
+    public void testThatTarZSTIsDownloaded() throws IOException {
+        String cmd = DownloadHelper.getInstance().downloadIfRequired("tkn", DownloadHelperTest.class.getResource("/tkn-test-tar.zst.json"));
+        assertNotNull(cmd);
+        assertEquals("." + File.separatorChar + "cache" + File.separatorChar + "0.5.0" + File.separatorChar + "tkn", cmd);
+        assertEquals(17, new File(cmd).length());
+    }
+
+    public void testThatTarGZIsUncompressedInParallel() throws IOException {
+        String cmd = DownloadHelper.getInstance().downloadIfRequired("tkn", DownloadHelperTest.class.getResource("/tkn-test-parallel-tar.gz.json"));
+        assertNotNull(cmd);
+        assertEquals("." + File.separatorChar + "cache" + File.separatorChar + "0.5.0" + File.separatorChar + "tkn", cmd);
+        assertEquals(17, new File(cmd).length());
+    }
+
+    public void testThatOnlyCommandAndIncludedEntriesAreExtracted() throws IOException {
+        String cmd = DownloadHelper.getInstance().downloadIfRequired("tkn", DownloadHelperTest.class.getResource("/tkn-test-includes.json"));
+        assertEquals("." + File.separatorChar + "cache" + File.separatorChar + "0.5.0" + File.separatorChar + "tkn", cmd);
+        Path folder = Paths.get(cmd).getParent();
+        assertEquals(17, Files.size(Paths.get(cmd)));
+        assertTrue(Files.exists(folder.resolve("LICENSE")));
+        assertTrue(Files.exists(folder.resolve("completions").resolve("tkn.bash")));
+        assertTrue(Files.exists(folder.resolve("completions").resolve("setup.sh")));
+        assertFalse(Files.exists(folder.resolve("README.md")));
+        assertFalse(Files.exists(folder.resolve("docs")));
+        if (!SystemInfo.isWindows) {
+            assertTrue(Files.getPosixFilePermissions(Paths.get(cmd)).contains(PosixFilePermission.OWNER_EXECUTE));
+            assertTrue(Files.getPosixFilePermissions(folder.resolve("completions").resolve("setup.sh")).contains(PosixFilePermission.OWNER_EXECUTE));
+            assertFalse(Files.getPosixFilePermissions(folder.resolve("LICENSE")).contains(PosixFilePermission.OWNER_EXECUTE));
+            assertFalse(Files.getPosixFilePermissions(folder.resolve("completions").resolve("tkn.bash")).contains(PosixFilePermission.OWNER_EXECUTE));
+        }
+    }
+
+    public void testThatIncludedZipEntriesWithDotPrefixAndNoModeAreExtractedExecutable() throws IOException {
+        String cmd = DownloadHelper.getInstance().downloadIfRequired("tkn", DownloadHelperTest.class.getResource("/tkn-test-includes-zip.json"));
+        assertEquals("." + File.separatorChar + "cache" + File.separatorChar + "0.5.0" + File.separatorChar + "tkn", cmd);
+        Path folder = Paths.get(cmd).getParent();
+        assertEquals(17, Files.size(Paths.get(cmd)));
+        assertTrue(Files.exists(folder.resolve("LICENSE")));
+        assertTrue(Files.exists(folder.resolve("completions").resolve("setup.sh")));
+        assertFalse(Files.exists(folder.resolve("README.md")));
+        if (!SystemInfo.isWindows) {
+            assertTrue(Files.getPosixFilePermissions(folder.resolve("completions").resolve("setup.sh")).contains(PosixFilePermission.OWNER_EXECUTE));
+        }
+    }
+
+    public void testThatFormatIsDetectedFromContent() throws IOException {
+        String cmd = DownloadHelper.getInstance().downloadIfRequired("tkn", DownloadHelperTest.class.getResource("/tkn-test-sniffed.json"));
+        assertNotNull(cmd);
+        assertEquals("." + File.separatorChar + "cache" + File.separatorChar + "0.5.0" + File.separatorChar + "tkn", cmd);
+        assertEquals(17, new File(cmd).length());
+    }
+
+    public void testThatStreamedTarGZIsDownloaded() throws IOException {
+        String cmd = DownloadHelper.getInstance().downloadIfRequired("tkn", DownloadHelperTest.class.getResource("/tkn-test-streamed-tar.gz.json"));
+        assertNotNull(cmd);
+        assertEquals("." + File.separatorChar + "cache" + File.separatorChar + "0.5.0" + File.separatorChar + "tkn", cmd);
+        assertEquals(17, new File(cmd).length());
+    }
+
+    public void testThatChecksumMismatchFails() {
+        try {
+            DownloadHelper.getInstance().downloadIfRequired("tkn", DownloadHelperTest.class.getResource("/tkn-test-bad-checksum.json"));
+            fail("Checksum mismatch should fail");
+        } catch (IOException e) {
+            assertFalse(new File("cache" + File.separatorChar + "0.5.0" + File.separatorChar + "tkn").exists());
+        }
+    }
+
+    public void testThatNeverPolicyDoesNotDownload() throws IOException {
+        DownloadHelper.getInstance().setDownloadPolicy(DownloadPolicy.NEVER);
+        String cmd = DownloadHelper.getInstance().downloadIfRequired("tkn", DownloadHelperTest.class.getResource("/tkn-test-gz.json"));
+        assertEquals("tkn", cmd);
+        assertFalse(new File("cache").exists());
+    }
+
+    public void testThatAsyncDownloadRunsOffDispatchThread() throws Exception {
+        DownloadHelper.getInstance().setDownloadPolicy(DownloadPolicy.ALWAYS);
+        String cmd = DownloadHelper.getInstance().downloadIfRequiredAsync("tkn", DownloadHelperTest.class.getResource("/tkn-test-gz.json")).get();
+        assertEquals("." + File.separatorChar + "cache" + File.separatorChar + "0.5.0" + File.separatorChar + "tkn", cmd);
+        assertEquals(17, new File(cmd).length());
+    }
+
+    public void testThatDispatchThreadWaitsForDownloadPromptingInBackground() throws Exception {
+        CountDownLatch prompting = new CountDownLatch(1);
+        DownloadHelper.getInstance().setDownloadPolicy((tool, currentVersion, requiredVersion) -> {
+            prompting.countDown();
+            // PROMPT shows its dialog on the event dispatch thread, which is the thread of the second caller
+            return DownloadPolicy.PROMPT.isDownloadAllowed(tool, currentVersion, requiredVersion);
+        });
+        CompletableFuture<String> background = DownloadHelper.getInstance().downloadIfRequiredAsync("tkn", DownloadHelperTest.class.getResource("/tkn-test-gz.json"));
+        assertTrue(prompting.await(10, TimeUnit.SECONDS));
+        assertTrue(ApplicationManager.getApplication().isDispatchThread());
+        String cmd = DownloadHelper.getInstance().downloadIfRequired("tkn", DownloadHelperTest.class.getResource("/tkn-test-gz.json"));
+        assertEquals("." + File.separatorChar + "cache" + File.separatorChar + "0.5.0" + File.separatorChar + "tkn", cmd);
+        assertEquals(cmd, background.get(10, TimeUnit.SECONDS));
+        assertEquals(17, new File(cmd).length());
+    }
+
+    public void testThatSeveralToolsAreDownloaded() throws IOException {
+        Map<String, String> cmds = DownloadHelper.getInstance().downloadIfRequired(Arrays.asList("tkn", "tkn-tar"), DownloadHelperTest.class.getResource("/tools-test-batch.json"));
+        assertEquals(Arrays.asList("tkn", "tkn-tar"), new ArrayList<>(cmds.keySet()));
+        assertEquals("." + File.separatorChar + "cache" + File.separatorChar + "0.5.0" + File.separatorChar + "tkn", cmds.get("tkn"));
+        assertEquals("." + File.separatorChar + "cache" + File.separatorChar + "0.6.0" + File.separatorChar + "tkn", cmds.get("tkn-tar"));
+        assertEquals(17, new File(cmds.get("tkn")).length());
+        assertEquals(17, new File(cmds.get("tkn-tar")).length());
+    }
+
+    public void testThatConcurrentDownloadOfBatchToolDoesNotPromptAgain() throws Exception {
+        AtomicInteger prompts = new AtomicInteger();
+        CountDownLatch prompting = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        DownloadHelper.getInstance().setDownloadPolicy((tool, currentVersion, requiredVersion) -> {
+            if ("tkn".equals(tool)) {
+                prompts.incrementAndGet();
+                prompting.countDown();
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return true;
+        });
+        CompletableFuture<Map<String, String>> batch = CompletableFuture.supplyAsync(() -> {
+            try {
+                return DownloadHelper.getInstance().downloadIfRequired(Arrays.asList("tkn", "tkn-tar"), DownloadHelperTest.class.getResource("/tools-test-batch.json"));
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        });
+        assertTrue(prompting.await(10, TimeUnit.SECONDS));
+        CompletableFuture<String> single = CompletableFuture.supplyAsync(() -> {
+            try {
+                return DownloadHelper.getInstance().downloadIfRequired("tkn", DownloadHelperTest.class.getResource("/tkn-test-gz.json"));
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        });
+        Thread.sleep(500);
+        release.countDown();
+        String cmd = single.get(10, TimeUnit.SECONDS);
+        assertEquals(cmd, batch.get(10, TimeUnit.SECONDS).get("tkn"));
+        assertEquals(1, prompts.get());
+        assertEquals(17, new File(cmd).length());
+    }
 }
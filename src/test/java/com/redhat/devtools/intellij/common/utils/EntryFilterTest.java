@@ -0,0 +1,49 @@
+/*******************************************************************************
+ * Copyright (c) 2020 Red Hat, Inc.
+ * Distributed under license by Red Hat, Inc. All rights reserved.
+ * This program is made available under the terms of the
+ * Eclipse Public License v2.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ * Red Hat, Inc.
+ ******************************************************************************/
+package com.redhat.devtools.intellij.common.utils;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class EntryFilterTest {
+    @Test
+    public void shouldAcceptAllWithoutIncludes() {
+        EntryFilter filter = new EntryFilter("tkn", Collections.emptyList());
+        assertTrue(filter.accept("docs/README.md"));
+        assertFalse(filter.isComplete());
+    }
+
+    @Test
+    public void shouldCompleteOnceNamesFound() {
+        EntryFilter filter = new EntryFilter("tkn", Collections.singletonList("LICENSE"));
+        assertFalse(filter.accept("README.md"));
+        assertTrue(filter.accept("./tkn"));
+        assertFalse(filter.isComplete());
+        assertTrue(filter.accept("LICENSE"));
+        assertTrue(filter.isComplete());
+    }
+
+    @Test
+    public void shouldMatchGlobs() {
+        EntryFilter filter = new EntryFilter("tkn", Arrays.asList("completions/*", "share/**/*.1"));
+        assertTrue(filter.accept("completions/tkn.bash"));
+        assertFalse(filter.accept("completions/zsh/_tkn"));
+        assertTrue(filter.accept("share/man/man1/tkn.1"));
+        assertFalse(filter.accept("share/man/man1/tkn.1.gz"));
+        assertTrue(filter.accept("tkn"));
+        assertFalse(filter.isComplete());
+    }
+}
@@ -0,0 +1,169 @@
+/*******************************************************************************
+ * Copyright (c) 2020 Red Hat, Inc.
+ * Distributed under license by Red Hat, Inc. All rights reserved.
+ * This program is made available under the terms of the
+ * Eclipse Public License v2.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ * Red Hat, Inc.
+ ******************************************************************************/
+package com.redhat.devtools.intellij.common.utils;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class ExecCacheTest {
+    private static final File FOLDER = new File(".");
+
+    private final AtomicInteger executions = new AtomicInteger();
+    private final AtomicReference<List<Long>> stamp = new AtomicReference<>(Arrays.asList(1L, 1L));
+
+    private ExecCache newCache(long ttl, int maxSize, ExecCache.Command command) {
+        return new ExecCache(ttl, TimeUnit.MILLISECONDS, maxSize, (executable, workingDirectory, arguments) -> {
+            executions.incrementAndGet();
+            return command.execute(executable, workingDirectory, arguments);
+        }, stamp::get);
+    }
+
+    private ExecCache newCache(long ttl, int maxSize) {
+        return newCache(ttl, maxSize, (executable, workingDirectory, arguments) ->
+                executable + " " + String.join(" ", arguments) + " " + executions.get());
+    }
+
+    @Test
+    public void shouldCountHitsAndMisses() throws IOException {
+        ExecCache cache = newCache(60000, 10);
+        assertEquals("oc whoami 1", cache.execute("oc", FOLDER, "whoami"));
+        assertEquals("oc whoami 1", cache.execute("oc", FOLDER, "whoami"));
+        assertEquals("oc version 2", cache.execute("oc", FOLDER, "version"));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+        assertEquals(2, executions.get());
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void shouldExecuteAgainOnceExpired() throws Exception {
+        ExecCache cache = newCache(100, 10);
+        cache.execute("oc", FOLDER, "whoami");
+        Thread.sleep(200);
+        assertEquals("oc whoami 2", cache.execute("oc", FOLDER, "whoami"));
+        assertEquals(2, cache.getMissCount());
+    }
+
+    @Test
+    public void shouldMeasureTimeToLiveFromCompletion() throws IOException {
+        ExecCache cache = newCache(200, 10, (executable, workingDirectory, arguments) -> {
+            try {
+                Thread.sleep(300);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return "slow";
+        });
+        cache.execute("oc", FOLDER, "whoami");
+        cache.execute("oc", FOLDER, "whoami");
+        assertEquals(1, executions.get());
+        assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    public void shouldEvictLeastRecentlyUsedEntry() throws IOException {
+        ExecCache cache = newCache(60000, 2);
+        cache.execute("oc", FOLDER, "a");
+        cache.execute("oc", FOLDER, "b");
+        cache.execute("oc", FOLDER, "a");
+        cache.execute("oc", FOLDER, "c");
+        assertEquals(2, cache.size());
+        assertEquals("oc a 1", cache.execute("oc", FOLDER, "a"));
+        assertEquals("oc b 4", cache.execute("oc", FOLDER, "b"));
+    }
+
+    @Test
+    public void shouldShareExecutionBetweenConcurrentCallers() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecCache cache = newCache(60000, 10, (executable, workingDirectory, arguments) -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return "shared";
+        });
+        List<String> results = Collections.synchronizedList(new ArrayList<>());
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    results.add(cache.execute("oc", FOLDER, "whoami"));
+                } catch (IOException e) {
+                    results.add(e.getMessage());
+                }
+            });
+            threads.add(thread);
+            thread.start();
+            started.await(5, TimeUnit.SECONDS);
+        }
+        Thread.sleep(100);
+        release.countDown();
+        for (Thread thread : threads) {
+            thread.join(5000);
+        }
+        assertEquals(Arrays.asList("shared", "shared", "shared", "shared"), results);
+        assertEquals(1, executions.get());
+        assertEquals(3, cache.getHitCount());
+    }
+
+    @Test
+    public void shouldNotCacheFailures() throws IOException {
+        ExecCache cache = newCache(60000, 10, (executable, workingDirectory, arguments) -> {
+            if (executions.get() == 1) {
+                throw new IOException("failed");
+            }
+            return "recovered";
+        });
+        try {
+            cache.execute("oc", FOLDER, "whoami");
+            fail("failure should be reported");
+        } catch (IOException e) {
+            assertEquals("failed", e.getMessage());
+        }
+        assertEquals(0, cache.size());
+        assertEquals("recovered", cache.execute("oc", FOLDER, "whoami"));
+        assertEquals(2, executions.get());
+    }
+
+    @Test
+    public void shouldExecuteAgainWhenKubeConfigChanged() throws IOException {
+        ExecCache cache = newCache(60000, 10);
+        cache.execute("oc", FOLDER, "whoami");
+        stamp.set(Arrays.asList(1L, 1L, 2L, 2L));
+        assertEquals("oc whoami 2", cache.execute("oc", FOLDER, "whoami"));
+        assertEquals(0, cache.getHitCount());
+    }
+
+    @Test
+    public void shouldExecuteAgainOnceInvalidated() throws IOException {
+        ExecCache cache = newCache(60000, 10);
+        cache.execute("oc", FOLDER, "whoami");
+        cache.invalidate();
+        assertEquals(0, cache.size());
+        assertEquals("oc whoami 2", cache.execute("oc", FOLDER, "whoami"));
+    }
+}
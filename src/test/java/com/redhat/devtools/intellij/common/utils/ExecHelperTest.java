@@ -0,0 +1,209 @@
+/*******************************************************************************
+ * Copyright (c) 2020 Red Hat, Inc.
+ * Distributed under license by Red Hat, Inc. All rights reserved.
+ * This program is made available under the terms of the
+ * Eclipse Public License v2.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ * Red Hat, Inc.
+ ******************************************************************************/
+package com.redhat.devtools.intellij.common.utils;
+
+import com.intellij.openapi.util.SystemInfo;
+import org.apache.commons.exec.ExecuteWatchdog;
+import org.apache.commons.lang.StringUtils;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeFalse;
+import static org.junit.Assume.assumeTrue;
+
+public class ExecHelperTest {
+
+    private static List<String> writeLines(String content, int chunkSize) {
+        List<String> lines = new ArrayList<>();
+        ExecHelper.LineOutputStream stream = new ExecHelper.LineOutputStream(lines::add);
+        byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < bytes.length; i += chunkSize) {
+            stream.write(bytes, i, Math.min(chunkSize, bytes.length - i));
+        }
+        stream.close();
+        return lines;
+    }
+
+    @Test
+    public void shouldSplitLines() {
+        assertEquals(Arrays.asList("line1", "", "line2"), writeLines("line1\n\nline2\n", 1024));
+    }
+
+    @Test
+    public void shouldSplitLinesWrittenByteByByte() {
+        assertEquals(Arrays.asList("line1", "", "line2"), writeLines("line1\n\nline2\n", 1));
+    }
+
+    @Test
+    public void shouldRemoveCRBeforeLF() {
+        assertEquals(Arrays.asList("line1", "line2"), writeLines("line1\r\nline2\r\n", 3));
+    }
+
+    @Test
+    public void shouldEmitTrailingPartialLineOnClose() {
+        assertEquals(Arrays.asList("line1", "partial"), writeLines("line1\npartial", 1024));
+    }
+
+    @Test
+    public void shouldSplitLongLineOnCharacterBoundary() {
+        // a 3 bytes character straddles the maximum line length
+        String prefix = StringUtils.repeat("a", ExecHelper.LineOutputStream.MAX_LINE_LENGTH - 2);
+        List<String> lines = writeLines(prefix + "\u20ac" + "b\n", 4096);
+        assertEquals(2, lines.size());
+        assertEquals(prefix, lines.get(0));
+        assertEquals("\u20ac" + "b", lines.get(1));
+    }
+
+    @Test
+    public void shouldSplitLongLineWrittenByteByByteOnCharacterBoundary() {
+        String prefix = StringUtils.repeat("a", ExecHelper.LineOutputStream.MAX_LINE_LENGTH - 1);
+        List<String> lines = writeLines(prefix + "\u00e9\n", 1);
+        assertEquals(Arrays.asList(prefix, "\u00e9"), lines);
+    }
+
+    @Test
+    public void shouldSendStandardErrorToOutputConsumerAsWholeLines() throws IOException {
+        assumeFalse(SystemInfo.isWindows);
+        List<String> lines = new ArrayList<>();
+        int exitCode = ExecHelper.execute("sh", false, new File("."), lines::add, null, "-c",
+                "for i in 1 2 3 4 5 6 7 8 9 10; do echo out$i; echo err$i >&2; done");
+        assertEquals(0, exitCode);
+        assertEquals(20, lines.size());
+        for (int i = 1; i <= 10; i++) {
+            assertTrue(lines.contains("out" + i));
+            assertTrue(lines.contains("err" + i));
+        }
+    }
+
+    @Test
+    public void shouldSendStandardErrorToErrorConsumer() throws IOException {
+        assumeFalse(SystemInfo.isWindows);
+        List<String> output = new ArrayList<>();
+        List<String> error = new ArrayList<>();
+        ExecHelper.execute("sh", false, new File("."), output::add, error::add, "-c", "echo out; echo err >&2");
+        assertEquals(Arrays.asList("out"), output);
+        assertEquals(Arrays.asList("err"), error);
+    }
+
+    @Test
+    public void shouldReturnResultOfAsyncExecution() throws Exception {
+        assumeFalse(SystemInfo.isWindows);
+        ExecHelper.ExecResult result = ExecHelper.executeAsync("sh", false, new File("."), 10, TimeUnit.SECONDS,
+                "-c", "echo out; echo err >&2; exit 3").get(10, TimeUnit.SECONDS);
+        assertEquals(3, result.getExitCode());
+        assertEquals("out\n", result.getStdout());
+        assertEquals("err\n", result.getStderr());
+        assertFalse(result.getWallTime().isNegative());
+    }
+
+    @Test
+    public void shouldFailAsyncExecutionOnNonZeroExitCode() throws Exception {
+        assumeFalse(SystemInfo.isWindows);
+        CompletableFuture<ExecHelper.ExecResult> future = ExecHelper.executeAsync("sh", true, new File("."), 10,
+                TimeUnit.SECONDS, "-c", "echo failure >&2; exit 3");
+        try {
+            future.get(10, TimeUnit.SECONDS);
+            fail("non zero exit code should fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+            assertTrue(e.getCause().getMessage().contains("failure"));
+        }
+    }
+
+    @Test
+    public void shouldKillAsyncExecutionOnTimeout() throws Exception {
+        assumeFalse(SystemInfo.isWindows);
+        long start = System.nanoTime();
+        CompletableFuture<ExecHelper.ExecResult> future = ExecHelper.executeAsync("sleep", true, new File("."), 200,
+                TimeUnit.MILLISECONDS, "30");
+        try {
+            future.get(10, TimeUnit.SECONDS);
+            fail("process should time out");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        }
+        assertTrue(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start) < 10);
+    }
+
+    @Test
+    public void shouldKillAsyncExecutionAndItsChildrenOnCancel() throws Exception {
+        assumeFalse(SystemInfo.isWindows);
+        assumeTrue(hasProcessHandle());
+        File pidFile = File.createTempFile("exec", ".pid");
+        pidFile.delete();
+        String path = pidFile.getAbsolutePath();
+        CompletableFuture<ExecHelper.ExecResult> future = ExecHelper.executeAsync("sh", false, new File("."), 0,
+                TimeUnit.MILLISECONDS, "-c", "echo $$ > " + path + ".tmp; sleep 30 & echo $! >> " + path + ".tmp; mv "
+                        + path + ".tmp " + path + "; wait");
+        List<String> pids = waitForLines(pidFile, 2);
+        future.cancel(true);
+        for (String pid : pids) {
+            waitForExit(pid);
+        }
+        pidFile.delete();
+    }
+
+    @Test
+    public void shouldDestroyProcessStartedAfterCancel() throws Exception {
+        assumeFalse(SystemInfo.isWindows);
+        ExecHelper.CancellableWatchdog watchdog = new ExecHelper.CancellableWatchdog(ExecuteWatchdog.INFINITE_TIMEOUT);
+        watchdog.cancel();
+        Process process = new ProcessBuilder("sleep", "30").start();
+        watchdog.start(process);
+        assertTrue(process.waitFor(10, TimeUnit.SECONDS));
+        assertTrue(watchdog.killedProcess());
+    }
+
+    private static boolean hasProcessHandle() {
+        try {
+            Class.forName("java.lang.ProcessHandle");
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Wait for the child process to write the file, it is moved in place once complete.
+     */
+    private static List<String> waitForLines(File file, int count) throws IOException, InterruptedException {
+        long timeout = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!file.exists() && System.nanoTime() < timeout) {
+            Thread.sleep(10);
+        }
+        List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        assertEquals(count, lines.size());
+        return lines;
+    }
+
+    private static void waitForExit(String pid) throws IOException, InterruptedException {
+        long timeout = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (new ProcessBuilder("kill", "-0", pid).start().waitFor() == 0) {
+            assertTrue("process " + pid + " should be killed", System.nanoTime() < timeout);
+            Thread.sleep(10);
+        }
+    }
+}
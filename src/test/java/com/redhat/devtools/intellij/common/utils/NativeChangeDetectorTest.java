@@ -0,0 +1,75 @@
+/*******************************************************************************
+ * Copyright (c) 2020 Red Hat, Inc.
+ * Distributed under license by Red Hat, Inc. All rights reserved.
+ * This program is made available under the terms of the
+ * Eclipse Public License v2.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ * Red Hat, Inc.
+ ******************************************************************************/
+package com.redhat.devtools.intellij.common.utils;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+public class NativeChangeDetectorTest {
+    private Path root;
+    private NativeChangeDetector detector;
+
+    @Before
+    public void setUp() throws IOException {
+        assumeTrue(NativeChangeDetector.isNative());
+        root = Files.createTempDirectory("native-watch");
+        detector = new NativeChangeDetector();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (detector != null) {
+            detector.dispose();
+        }
+        if (root != null) {
+            FileUtils.deleteDirectory(root.toFile());
+        }
+    }
+
+    @Test
+    public void shouldWatchFolderAgainOnceItReappeared() throws IOException, InterruptedException {
+        Path folder = Files.createDirectory(root.resolve("kube"));
+        Path config = folder.resolve("config");
+        Files.write(config, "initial".getBytes(StandardCharsets.UTF_8));
+        AtomicInteger changes = new AtomicInteger();
+        detector.watch(config, changes::incrementAndGet);
+        FileUtils.deleteDirectory(folder.toFile());
+        waitForMoreThan(changes, 0);
+        Files.createDirectory(folder);
+        Files.write(config, "recreated".getBytes(StandardCharsets.UTF_8));
+        // the notification of the recreated folder may have been sent before the file was written
+        int recreated = waitForMoreThan(changes, changes.get());
+        Files.write(config, "modified".getBytes(StandardCharsets.UTF_8));
+        waitForMoreThan(changes, recreated);
+    }
+
+    private static int waitForMoreThan(AtomicInteger counter, int count) throws InterruptedException {
+        long timeout = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (counter.get() <= count && System.nanoTime() < timeout) {
+            Thread.sleep(10);
+        }
+        assertTrue(counter.get() > count);
+        Thread.sleep(200);
+        return counter.get();
+    }
+}
@@ -0,0 +1,93 @@
+/*******************************************************************************
+ * Copyright (c) 2020 Red Hat, Inc.
+ * Distributed under license by Red Hat, Inc. All rights reserved.
+ * This program is made available under the terms of the
+ * Eclipse Public License v2.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ * Red Hat, Inc.
+ ******************************************************************************/
+package com.redhat.devtools.intellij.common.utils;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+public class PollingChangeDetectorTest {
+    private static final long INTERVAL = 50;
+
+    private Path folder;
+    private Path file;
+    private PollingChangeDetector detector;
+
+    @Before
+    public void setUp() throws IOException {
+        folder = Files.createTempDirectory("polling");
+        file = folder.resolve("config");
+        detector = new PollingChangeDetector(INTERVAL, INTERVAL);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        detector.dispose();
+        TaskScheduler.setInstance(null);
+        FileUtils.deleteDirectory(folder.toFile());
+    }
+
+    @Test
+    public void shouldKeepPollingAfterListenerFailure() throws IOException, InterruptedException {
+        AtomicInteger changes = new AtomicInteger();
+        detector.watch(file, () -> {
+            changes.incrementAndGet();
+            throw new IllegalStateException("listener failed");
+        });
+        Files.write(file, "created".getBytes(StandardCharsets.UTF_8));
+        waitFor(changes, 1);
+        Files.delete(file);
+        waitFor(changes, 2);
+    }
+
+    @Test
+    public void shouldReportChangeRejectedByIOLaneOnceLaneHasRoom() throws IOException, InterruptedException {
+        TaskScheduler scheduler = new TaskScheduler("test", 1, 1, 1, new ThreadPoolExecutor.AbortPolicy());
+        TaskScheduler.setInstance(scheduler);
+        CountDownLatch release = new CountDownLatch(1);
+        Runnable blocked = () -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+        AtomicInteger changes = new AtomicInteger();
+        detector.watch(file, changes::incrementAndGet);
+        scheduler.submit(TaskScheduler.Lane.IO, blocked);
+        scheduler.submit(TaskScheduler.Lane.IO, blocked);
+        Files.write(file, "created".getBytes(StandardCharsets.UTF_8));
+        Thread.sleep(10 * INTERVAL);
+        assertEquals(0, changes.get());
+        release.countDown();
+        waitFor(changes, 1);
+    }
+
+    private static void waitFor(AtomicInteger counter, int expected) throws InterruptedException {
+        long timeout = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (counter.get() < expected && System.nanoTime() < timeout) {
+            Thread.sleep(10);
+        }
+        assertEquals(expected, counter.get());
+    }
+}
@@ -0,0 +1,246 @@
+/*******************************************************************************
+ * Copyright (c) 2020 Red Hat, Inc.
+ * Distributed under license by Red Hat, Inc. All rights reserved.
+ * This program is made available under the terms of the
+ * Eclipse Public License v2.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ * Red Hat, Inc.
+ ******************************************************************************/
+package com.redhat.devtools.intellij.common.utils;
+
+import com.intellij.openapi.progress.EmptyProgressIndicator;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RangeDownloaderTest {
+    private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-(\\d+)");
+
+    private final byte[] content = new byte[100 * 1024];
+    private final byte[] changed = new byte[content.length];
+    private final AtomicInteger headRequests = new AtomicInteger();
+    private final AtomicInteger rangeRequests = new AtomicInteger();
+    private final AtomicInteger bytesServed = new AtomicInteger();
+    private final CountDownLatch unstall = new CountDownLatch(1);
+    private volatile byte[] served = content;
+    private volatile String etag = "\"v1\"";
+    private HttpServer server;
+    private Path folder;
+
+    @Before
+    public void setUp() throws IOException {
+        new Random(42).nextBytes(content);
+        new Random(43).nextBytes(changed);
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/ranges", exchange -> serve(exchange, true));
+        server.createContext("/noranges", exchange -> serve(exchange, false));
+        server.createContext("/stalled", this::stall);
+        server.createContext("/changing", this::change);
+        server.start();
+        folder = Files.createTempDirectory("range-downloader");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        unstall.countDown();
+        server.stop(0);
+        FileUtils.deleteDirectory(folder.toFile());
+    }
+
+    private void serve(HttpExchange exchange, boolean ranges) throws IOException {
+        if (ranges) {
+            exchange.getResponseHeaders().add("Accept-Ranges", "bytes");
+            exchange.getResponseHeaders().add("ETag", etag);
+        }
+        byte[] content = served;
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+        int start = 0;
+        int end = content.length - 1;
+        int code = 200;
+        if (ranges && range != null && (ifRange == null || ifRange.equals(etag))) {
+            Matcher matcher = RANGE.matcher(range);
+            if (matcher.matches()) {
+                start = Integer.parseInt(matcher.group(1));
+                end = Integer.parseInt(matcher.group(2));
+                code = 206;
+                rangeRequests.incrementAndGet();
+                exchange.getResponseHeaders().add("Content-Range", "bytes " + start + "-" + end + "/" + content.length);
+            }
+        }
+        if ("HEAD".equals(exchange.getRequestMethod())) {
+            exchange.getResponseHeaders().add("Content-Length", String.valueOf(content.length));
+            exchange.sendResponseHeaders(code, -1);
+        } else {
+            // counted before the client can complete the download
+            bytesServed.addAndGet(end - start + 1);
+            exchange.sendResponseHeaders(code, end - start + 1);
+            try (OutputStream output = exchange.getResponseBody()) {
+                output.write(content, start, end - start + 1);
+            }
+        }
+        exchange.close();
+    }
+
+    private void stall(HttpExchange exchange) throws IOException {
+        if ("HEAD".equals(exchange.getRequestMethod())) {
+            serve(exchange, false);
+            return;
+        }
+        exchange.sendResponseHeaders(200, content.length);
+        try {
+            unstall.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        exchange.close();
+    }
+
+    /**
+     * The file changes on the server right after the first HEAD request.
+     */
+    private void change(HttpExchange exchange) throws IOException {
+        boolean first = "HEAD".equals(exchange.getRequestMethod()) && headRequests.getAndIncrement() == 0;
+        serve(exchange, true);
+        if (first) {
+            served = changed;
+            etag = "\"v2\"";
+        }
+    }
+
+    private URL url(String path) throws IOException {
+        return new URL("http://localhost:" + server.getAddress().getPort() + path);
+    }
+
+    @Test
+    public void shouldDownloadInSegments() throws IOException {
+        Path target = folder.resolve("tool.tar.gz");
+        new RangeDownloader(4, 1024).download(url("/ranges"), target, new EmptyProgressIndicator());
+        assertArrayEquals(content, Files.readAllBytes(target));
+        assertEquals(4, rangeRequests.get());
+        assertFalse(Files.exists(folder.resolve("tool.tar.gz.part0")));
+        assertFalse(Files.exists(folder.resolve("tool.tar.gz.parts")));
+        assertFalse(Files.exists(folder.resolve("tool.tar.gz.lock")));
+    }
+
+    @Test
+    public void shouldResumePartialSegments() throws IOException {
+        Path target = folder.resolve("tool.tar.gz");
+        int segmentSize = content.length / 2;
+        Files.write(folder.resolve("tool.tar.gz.parts"), Arrays.asList("length=" + content.length, "validator=\"v1\"", "segments=2"));
+        Files.write(folder.resolve("tool.tar.gz.part0"), Arrays.copyOfRange(content, 0, segmentSize));
+        Files.write(folder.resolve("tool.tar.gz.part1"), Arrays.copyOfRange(content, segmentSize, segmentSize + 100));
+        new RangeDownloader(2, 1024).download(url("/ranges"), target, new EmptyProgressIndicator());
+        assertArrayEquals(content, Files.readAllBytes(target));
+        assertEquals(1, rangeRequests.get());
+        assertEquals(content.length - segmentSize - 100, bytesServed.get());
+    }
+
+    @Test
+    public void shouldRestartIfValidatorChanged() throws IOException {
+        Path target = folder.resolve("tool.tar.gz");
+        Files.write(folder.resolve("tool.tar.gz.parts"), Arrays.asList("length=" + content.length, "validator=\"v0\"", "segments=2"));
+        Files.write(folder.resolve("tool.tar.gz.part0"), new byte[100]);
+        new RangeDownloader(2, 1024).download(url("/ranges"), target, new EmptyProgressIndicator());
+        assertArrayEquals(content, Files.readAllBytes(target));
+        assertEquals(content.length, bytesServed.get());
+    }
+
+    @Test
+    public void shouldRestartIfFileChangedDuringDownload() throws IOException {
+        Path target = folder.resolve("tool.tar.gz");
+        new RangeDownloader(4, 1024).download(url("/changing"), target, new EmptyProgressIndicator());
+        assertArrayEquals(changed, Files.readAllBytes(target));
+        assertEquals(2, headRequests.get());
+        assertEquals(4, rangeRequests.get());
+        assertFalse(Files.exists(folder.resolve("tool.tar.gz.parts")));
+    }
+
+    @Test
+    public void shouldFallbackToSingleStreamWithoutRangeSupport() throws IOException {
+        Path target = folder.resolve("tool.tar.gz");
+        new RangeDownloader(4, 1024).download(url("/noranges"), target, new EmptyProgressIndicator());
+        assertArrayEquals(content, Files.readAllBytes(target));
+        assertEquals(0, rangeRequests.get());
+        assertFalse(Files.exists(folder.resolve("tool.tar.gz.lock")));
+    }
+
+    @Test
+    public void shouldFailOnStalledConnection() throws IOException {
+        Path target = folder.resolve("tool.tar.gz");
+        long start = System.nanoTime();
+        try {
+            new RangeDownloader(4, 1024, 1000, 500).download(url("/stalled"), target, new EmptyProgressIndicator());
+            fail("stalled download should fail");
+        } catch (IOException e) {
+            // expected
+        }
+        assertTrue(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start) < 5);
+        assertFalse(Files.exists(target));
+    }
+
+    @Test
+    public void shouldWaitForDownloadLockedByAnotherProcess() throws Exception {
+        Path target = folder.resolve("tool.tar.gz");
+        CountDownLatch downloaded = new CountDownLatch(1);
+        try (FileChannel channel = FileChannel.open(folder.resolve("tool.tar.gz.lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+             FileLock ignored = channel.lock()) {
+            Thread thread = new Thread(() -> {
+                try {
+                    new RangeDownloader(4, 1024).download(url("/ranges"), target, new EmptyProgressIndicator());
+                    downloaded.countDown();
+                } catch (IOException e) {
+                    // reported by the assertions below
+                }
+            });
+            thread.start();
+            assertFalse(downloaded.await(500, TimeUnit.MILLISECONDS));
+            assertEquals(0, bytesServed.get());
+        }
+        assertTrue(downloaded.await(5, TimeUnit.SECONDS));
+        assertArrayEquals(content, Files.readAllBytes(target));
+    }
+
+    @Test
+    public void shouldStopWaitingForLockWhenCancelled() throws Exception {
+        Path target = folder.resolve("tool.tar.gz");
+        EmptyProgressIndicator progressIndicator = new EmptyProgressIndicator();
+        try (FileChannel channel = FileChannel.open(folder.resolve("tool.tar.gz.lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+             FileLock ignored = channel.lock()) {
+            progressIndicator.cancel();
+            new RangeDownloader(4, 1024).download(url("/ranges"), target, progressIndicator);
+            fail("cancelled download should fail");
+        } catch (IOException e) {
+            assertEquals("Cancelled", e.getMessage());
+        }
+        assertEquals(0, bytesServed.get());
+    }
+}
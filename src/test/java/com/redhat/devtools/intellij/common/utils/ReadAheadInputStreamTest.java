@@ -0,0 +1,126 @@
+/*******************************************************************************
+ * Copyright (c) 2020 Red Hat, Inc.
+ * Distributed under license by Red Hat, Inc. All rights reserved.
+ * This program is made available under the terms of the
+ * Eclipse Public License v2.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ * Red Hat, Inc.
+ ******************************************************************************/
+package com.redhat.devtools.intellij.common.utils;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ReadAheadInputStreamTest {
+    @Test
+    public void shouldReadAllBytes() throws IOException {
+        byte[] data = new byte[100_000];
+        new Random(0).nextBytes(data);
+        try (InputStream input = new ReadAheadInputStream(new ByteArrayInputStream(data), 4096, 2)) {
+            assertArrayEquals(data, IOUtils.toByteArray(input));
+            assertEquals(-1, input.read());
+        }
+    }
+
+    @Test
+    public void shouldReportDelegateFailure() throws IOException {
+        InputStream failing = new InputStream() {
+            private int count;
+
+            @Override
+            public int read() throws IOException {
+                if (count++ >= 10) {
+                    throw new IOException("Corrupted");
+                }
+                return 0;
+            }
+        };
+        try (InputStream input = new ReadAheadInputStream(failing, 4, 2)) {
+            IOUtils.toByteArray(input);
+        } catch (IOException e) {
+            assertEquals("Corrupted", e.getMessage());
+            return;
+        }
+        throw new AssertionError("Failure should be reported");
+    }
+
+    @Test
+    public void shouldCloseDelegate() throws IOException {
+        AtomicBoolean closed = new AtomicBoolean();
+        InputStream delegate = new ByteArrayInputStream(new byte[100_000]) {
+            @Override
+            public void close() {
+                closed.set(true);
+            }
+        };
+        InputStream input = new ReadAheadInputStream(delegate, 1024, 2);
+        assertEquals(0, input.read());
+        input.close();
+        assertTrue(closed.get());
+    }
+
+    @Test
+    public void shouldNotWaitForeverForBlockedDelegateOnClose() throws Exception {
+        CountDownLatch reading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        InputStream blocked = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                reading.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return -1;
+            }
+        };
+        try {
+            InputStream input = new ReadAheadInputStream(blocked, 1024, 2, 200);
+            assertTrue(reading.await(5, TimeUnit.SECONDS));
+            long start = System.nanoTime();
+            input.close();
+            assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 2000);
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    public void shouldReadOnCallerThreadWhenLaneIsBusy() throws Exception {
+        TaskScheduler scheduler = new TaskScheduler("test", 1, 1, 10, new TaskScheduler.BlockingPolicy());
+        TaskScheduler.setInstance(scheduler);
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            scheduler.submit(TaskScheduler.Lane.IO, () -> {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            byte[] data = new byte[100_000];
+            new Random(0).nextBytes(data);
+            try (InputStream input = new ReadAheadInputStream(new ByteArrayInputStream(data), 4096, 2)) {
+                assertArrayEquals(data, IOUtils.toByteArray(input));
+            }
+        } finally {
+            release.countDown();
+            TaskScheduler.setInstance(null);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/*******************************************************************************
+ * Copyright (c) 2020 Red Hat, Inc.
+ * Distributed under license by Red Hat, Inc. All rights reserved.
+ * This program is made available under the terms of the
+ * Eclipse Public License v2.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ * Red Hat, Inc.
+ ******************************************************************************/
+package com.redhat.devtools.intellij.common.utils;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RedirectedStreamTest {
+
+    private static String readAll(InputStream stream, int bufferSize) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[bufferSize];
+        int count;
+        while ((count = stream.read(buffer)) != -1) {
+            output.write(buffer, 0, count);
+        }
+        return new String(output.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static InputStream redirected(String content, boolean redirect) {
+        return new ExecHelper.RedirectedStream(new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)), redirect, false);
+    }
+
+    @Test
+    public void shouldTranslateLFToCRLF() throws IOException {
+        assertEquals("line1\r\nline2\r\n", readAll(redirected("line1\nline2\n", true), 1024));
+    }
+
+    @Test
+    public void shouldTranslateLFToCRLFWhenBufferIsFull() throws IOException {
+        assertEquals("a\r\nb\r\n\r\nc", readAll(redirected("a\nb\n\nc", true), 2));
+    }
+
+    @Test
+    public void shouldTranslateLFToCRLFWithSingleByteBuffer() throws IOException {
+        assertEquals("a\r\n\r\nb", readAll(redirected("a\n\nb", true), 1));
+    }
+
+    @Test
+    public void shouldTranslateLFToCRLFWithSingleByteReads() throws IOException {
+        InputStream stream = redirected("a\nb", true);
+        StringBuilder builder = new StringBuilder();
+        int c;
+        while ((c = stream.read()) != -1) {
+            builder.append((char) c);
+        }
+        assertEquals("a\r\nb", builder.toString());
+    }
+
+    @Test
+    public void shouldNotTranslateIfNotRedirected() throws IOException {
+        assertEquals("line1\nline2\n", readAll(redirected("line1\nline2\n", false), 3));
+    }
+
+    @Test
+    public void shouldReadContentLargerThanBuffer() throws IOException {
+        StringBuilder input = new StringBuilder();
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            input.append("line ").append(i).append('\n');
+            expected.append("line ").append(i).append("\r\n");
+        }
+        assertEquals(expected.toString(), readAll(redirected(input.toString(), true), 4096));
+    }
+
+    @Test
+    public void shouldReturnEndOfStreamOnceReleased() throws Exception {
+        ExecHelper.RedirectedStream stream = new ExecHelper.RedirectedStream(new ByteArrayInputStream(new byte[0]), true, true);
+        Thread releaser = new Thread(() -> {
+            try {
+                Thread.sleep(100L);
+            } catch (InterruptedException e) {}
+            stream.release();
+        });
+        releaser.start();
+        assertEquals(-1, stream.read(new byte[16]));
+        releaser.join();
+    }
+
+    @Test
+    public void shouldNotHoldMonitorWhileWaitingForRelease() throws Exception {
+        ExecHelper.RedirectedStream stream = new ExecHelper.RedirectedStream(new ByteArrayInputStream(new byte[0]), true, true);
+        Thread reader = new Thread(() -> {
+            try {
+                stream.read(new byte[16]);
+            } catch (IOException e) {}
+        });
+        reader.start();
+        Thread.sleep(100L);
+        assertEquals(0, stream.available());
+        stream.release();
+        reader.join(5000L);
+        assertFalse(reader.isAlive());
+    }
+
+    @Test
+    public void shouldReturnEndOfStreamAfterReleaseTimeout() throws Exception {
+        ExecHelper.RedirectedStream stream = new ExecHelper.RedirectedStream(new ByteArrayInputStream(new byte[0]), true, true, 100L);
+        long start = System.nanoTime();
+        assertEquals(-1, stream.read());
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 100L);
+    }
+}
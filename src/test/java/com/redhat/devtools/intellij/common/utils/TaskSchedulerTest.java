@@ -0,0 +1,261 @@
+/*******************************************************************************
+ * Copyright (c) 2020 Red Hat, Inc.
+ * Distributed under license by Red Hat, Inc. All rights reserved.
+ * This program is made available under the terms of the
+ * Eclipse Public License v2.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ * Red Hat, Inc.
+ ******************************************************************************/
+package com.redhat.devtools.intellij.common.utils;
+
+import org.junit.After;
+import org.junit.Test;
+
+import javax.swing.SwingUtilities;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TaskSchedulerTest {
+    private TaskScheduler scheduler;
+
+    @After
+    public void tearDown() {
+        if (scheduler != null) {
+            scheduler.dispose();
+        }
+    }
+
+    private TaskScheduler newScheduler(int queueCapacity, RejectedExecutionHandler policy) {
+        scheduler = new TaskScheduler("test", 1, 1, queueCapacity, policy);
+        return scheduler;
+    }
+
+    /**
+     * Occupy the single thread of the lane until the returned latch is released.
+     */
+    private static CountDownLatch block(TaskScheduler scheduler, TaskScheduler.Lane lane) throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        scheduler.submit(lane, () -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        return release;
+    }
+
+    @Test
+    public void shouldRunTasksOnNamedDaemonThreadsOfTheirLane() throws Exception {
+        newScheduler(10, new ThreadPoolExecutor.AbortPolicy());
+        AtomicReference<Thread> io = new AtomicReference<>();
+        AtomicReference<Thread> cpu = new AtomicReference<>();
+        scheduler.submit(TaskScheduler.Lane.IO, () -> io.set(Thread.currentThread())).get(5, TimeUnit.SECONDS);
+        scheduler.submit(TaskScheduler.Lane.CPU, () -> cpu.set(Thread.currentThread())).get(5, TimeUnit.SECONDS);
+        assertTrue(io.get().getName().startsWith("test-io-"));
+        assertTrue(cpu.get().getName().startsWith("test-cpu-"));
+        assertTrue(io.get().isDaemon());
+        assertTrue(cpu.get().isDaemon());
+    }
+
+    @Test
+    public void shouldKeepRunningTasksAfterATaskFailed() throws Exception {
+        newScheduler(10, new ThreadPoolExecutor.AbortPolicy());
+        scheduler.getExecutor(TaskScheduler.Lane.IO).execute(() -> {
+            throw new IllegalStateException("expected failure");
+        });
+        scheduler.submit(TaskScheduler.Lane.IO, () -> {
+            throw new IllegalStateException("expected failure");
+        });
+        assertEquals("ok", scheduler.submit(TaskScheduler.Lane.IO, () -> "ok").get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void shouldRejectWithAbortPolicyWhenQueueIsFull() throws Exception {
+        newScheduler(1, new ThreadPoolExecutor.AbortPolicy());
+        CountDownLatch release = block(scheduler, TaskScheduler.Lane.IO);
+        scheduler.submit(TaskScheduler.Lane.IO, () -> {});
+        try {
+            scheduler.submit(TaskScheduler.Lane.IO, () -> {});
+            fail("task should be rejected");
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+        TaskScheduler.LaneMetrics metrics = scheduler.getMetrics(TaskScheduler.Lane.IO);
+        assertEquals(1, metrics.getRejectedCount());
+        assertEquals(1, metrics.getQueueDepth());
+        assertEquals(1, metrics.getActiveCount());
+        assertEquals(0, scheduler.getMetrics(TaskScheduler.Lane.CPU).getRejectedCount());
+        release.countDown();
+    }
+
+    @Test
+    public void shouldWaitForRoomWithBlockingPolicy() throws Exception {
+        newScheduler(1, new TaskScheduler.BlockingPolicy());
+        CountDownLatch release = block(scheduler, TaskScheduler.Lane.IO);
+        scheduler.submit(TaskScheduler.Lane.IO, () -> {});
+        CountDownLatch submitted = new CountDownLatch(1);
+        CountDownLatch ran = new CountDownLatch(1);
+        Thread submitter = new Thread(() -> {
+            scheduler.submit(TaskScheduler.Lane.IO, ran::countDown);
+            submitted.countDown();
+        });
+        submitter.start();
+        assertFalse(submitted.await(200, TimeUnit.MILLISECONDS));
+        release.countDown();
+        assertTrue(submitted.await(5, TimeUnit.SECONDS));
+        assertTrue(ran.await(5, TimeUnit.SECONDS));
+        assertEquals(1, scheduler.getMetrics(TaskScheduler.Lane.IO).getRejectedCount());
+    }
+
+    @Test
+    public void shouldNotDropScheduledTaskWhenLaneIsSaturated() throws Exception {
+        newScheduler(1, new TaskScheduler.BlockingPolicy());
+        CountDownLatch release = block(scheduler, TaskScheduler.Lane.IO);
+        scheduler.submit(TaskScheduler.Lane.IO, () -> {});
+        CountDownLatch ran = new CountDownLatch(1);
+        scheduler.schedule(TaskScheduler.Lane.IO, ran::countDown, 10, TimeUnit.MILLISECONDS);
+        assertFalse(ran.await(200, TimeUnit.MILLISECONDS));
+        release.countDown();
+        assertTrue(ran.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void shouldNotBlockTimerWhenLaneIsSaturated() throws Exception {
+        newScheduler(1, new TaskScheduler.BlockingPolicy());
+        CountDownLatch release = block(scheduler, TaskScheduler.Lane.IO);
+        scheduler.submit(TaskScheduler.Lane.IO, () -> {});
+        CountDownLatch io = new CountDownLatch(1);
+        CountDownLatch cpu = new CountDownLatch(1);
+        scheduler.schedule(TaskScheduler.Lane.IO, io::countDown, 10, TimeUnit.MILLISECONDS);
+        scheduler.schedule(TaskScheduler.Lane.CPU, cpu::countDown, 50, TimeUnit.MILLISECONDS);
+        assertTrue(cpu.await(5, TimeUnit.SECONDS));
+        assertEquals(1, io.getCount());
+        release.countDown();
+        assertTrue(io.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void shouldRejectTaskOfEventDispatchThreadInsteadOfWaiting() throws Exception {
+        newScheduler(1, new TaskScheduler.BlockingPolicy());
+        CountDownLatch release = block(scheduler, TaskScheduler.Lane.IO);
+        scheduler.submit(TaskScheduler.Lane.IO, () -> {});
+        AtomicReference<Exception> rejection = new AtomicReference<>();
+        try {
+            SwingUtilities.invokeAndWait(() -> {
+                try {
+                    scheduler.submit(TaskScheduler.Lane.IO, () -> {});
+                } catch (RejectedExecutionException e) {
+                    rejection.set(e);
+                }
+            });
+        } finally {
+            release.countDown();
+        }
+        assertTrue(rejection.get() instanceof RejectedExecutionException);
+    }
+
+    @Test
+    public void shouldRunScheduledTaskOnLaneAfterDelay() throws Exception {
+        newScheduler(10, new ThreadPoolExecutor.AbortPolicy());
+        AtomicReference<Thread> thread = new AtomicReference<>();
+        CountDownLatch ran = new CountDownLatch(1);
+        long start = System.nanoTime();
+        scheduler.schedule(TaskScheduler.Lane.CPU, () -> {
+            thread.set(Thread.currentThread());
+            ran.countDown();
+        }, 100, TimeUnit.MILLISECONDS);
+        assertTrue(ran.await(5, TimeUnit.SECONDS));
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 100);
+        assertTrue(thread.get().getName().startsWith("test-cpu-"));
+    }
+
+    @Test
+    public void shouldNotRunCancelledScheduledTask() throws Exception {
+        newScheduler(10, new ThreadPoolExecutor.AbortPolicy());
+        CountDownLatch ran = new CountDownLatch(1);
+        scheduler.schedule(TaskScheduler.Lane.IO, ran::countDown, 100, TimeUnit.MILLISECONDS).cancel(false);
+        assertFalse(ran.await(300, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void shouldReportCompletedTasksAndLatency() throws Exception {
+        newScheduler(10, new ThreadPoolExecutor.AbortPolicy());
+        CountDownLatch release = block(scheduler, TaskScheduler.Lane.IO);
+        scheduler.submit(TaskScheduler.Lane.IO, () -> {});
+        Thread.sleep(100);
+        release.countDown();
+        scheduler.submit(TaskScheduler.Lane.IO, () -> {}).get(5, TimeUnit.SECONDS);
+        TaskScheduler.LaneMetrics metrics = scheduler.getMetrics(TaskScheduler.Lane.IO);
+        assertTrue(metrics.getMaxLatency() >= 100);
+        assertTrue(metrics.getAverageLatency() > 0);
+        assertEquals(0, metrics.getRejectedCount());
+    }
+
+    @Test
+    public void shouldRejectTasksOnceDisposed() throws Exception {
+        newScheduler(10, new TaskScheduler.BlockingPolicy());
+        CountDownLatch release = block(scheduler, TaskScheduler.Lane.IO);
+        scheduler.dispose();
+        try {
+            scheduler.submit(TaskScheduler.Lane.IO, () -> {});
+            fail("task should be rejected");
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+        release.countDown();
+    }
+
+    @Test
+    public void shouldRunAllTasksOnLane() throws Exception {
+        newScheduler(10, new ThreadPoolExecutor.AbortPolicy());
+        List<Future<String>> futures = scheduler.invokeAll(TaskScheduler.Lane.IO, Arrays.asList(
+                () -> "a",
+                () -> {
+                    throw new IOException("expected failure");
+                },
+                () -> "c"));
+        assertEquals("a", futures.get(0).get());
+        try {
+            futures.get(1).get();
+            fail("failure should be reported");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+        assertEquals("c", futures.get(2).get());
+    }
+
+    @Test
+    public void shouldRunTasksOnCallingThreadWhenLaneIsSaturated() throws Exception {
+        newScheduler(1, new ThreadPoolExecutor.AbortPolicy());
+        CountDownLatch release = block(scheduler, TaskScheduler.Lane.IO);
+        try {
+            List<Future<Thread>> futures = scheduler.invokeAll(TaskScheduler.Lane.IO, Arrays.asList(
+                    Thread::currentThread, Thread::currentThread, Thread::currentThread));
+            for (Future<Thread> future : futures) {
+                assertEquals(Thread.currentThread(), future.get());
+            }
+        } finally {
+            release.countDown();
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*******************************************************************************
+ * Copyright (c) 2020 Red Hat, Inc.
+ * Distributed under license by Red Hat, Inc. All rights reserved.
+ * This program is made available under the terms of the
+ * Eclipse Public License v2.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ * Red Hat, Inc.
+ ******************************************************************************/
+package com.redhat.devtools.intellij.common.utils;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ToolIndexTest {
+    private Path folder;
+    private Path indexFile;
+    private Path binary;
+
+    @Before
+    public void setUp() throws IOException {
+        folder = Files.createTempDirectory("tool-index");
+        indexFile = folder.resolve("tools-index.json");
+        binary = folder.resolve("tool");
+        Files.write(binary, "binary".getBytes(StandardCharsets.UTF_8));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(folder.toFile());
+    }
+
+    @Test
+    public void shouldReturnStoredVersion() {
+        ToolIndex index = new ToolIndex(indexFile);
+        index.putVersion("tool", binary, "fingerprint", "1.0.0");
+        assertEquals("1.0.0", index.getVersion("tool", binary, "fingerprint"));
+    }
+
+    @Test
+    public void shouldReturnVersionStoredByAnotherInstance() {
+        new ToolIndex(indexFile).putVersion("tool", binary, "fingerprint", "1.0.0");
+        assertEquals("1.0.0", new ToolIndex(indexFile).getVersion("tool", binary, "fingerprint"));
+    }
+
+    @Test
+    public void shouldReturnNullForUnknownTool() {
+        ToolIndex index = new ToolIndex(indexFile);
+        index.putVersion("tool", binary, "fingerprint", "1.0.0");
+        assertNull(index.getVersion("other", binary, "fingerprint"));
+    }
+
+    @Test
+    public void shouldReturnNullIfSizeChanged() throws IOException {
+        ToolIndex index = new ToolIndex(indexFile);
+        index.putVersion("tool", binary, "fingerprint", "1.0.0");
+        FileTime lastModified = Files.getLastModifiedTime(binary);
+        Files.write(binary, "new binary".getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(binary, lastModified);
+        assertNull(index.getVersion("tool", binary, "fingerprint"));
+    }
+
+    @Test
+    public void shouldReturnNullIfModificationTimeChanged() throws IOException {
+        ToolIndex index = new ToolIndex(indexFile);
+        index.putVersion("tool", binary, "fingerprint", "1.0.0");
+        Files.setLastModifiedTime(binary, FileTime.fromMillis(Files.getLastModifiedTime(binary).toMillis() - 60000));
+        assertNull(index.getVersion("tool", binary, "fingerprint"));
+    }
+
+    @Test
+    public void shouldReturnNullIfFingerprintChanged() {
+        ToolIndex index = new ToolIndex(indexFile);
+        index.putVersion("tool", binary, "fingerprint", "1.0.0");
+        assertNull(index.getVersion("tool", binary, "other fingerprint"));
+    }
+
+    @Test
+    public void shouldReturnNullIfPathChanged() throws IOException {
+        ToolIndex index = new ToolIndex(indexFile);
+        index.putVersion("tool", binary, "fingerprint", "1.0.0");
+        Path other = Files.copy(binary, folder.resolve("other"));
+        Files.setLastModifiedTime(other, Files.getLastModifiedTime(binary));
+        assertNull(index.getVersion("tool", other, "fingerprint"));
+    }
+
+    @Test
+    public void shouldReturnNullIfBinaryDeleted() throws IOException {
+        ToolIndex index = new ToolIndex(indexFile);
+        index.putVersion("tool", binary, "fingerprint", "1.0.0");
+        Files.delete(binary);
+        assertNull(index.getVersion("tool", binary, "fingerprint"));
+    }
+
+    @Test
+    public void shouldIgnoreCorruptedIndex() throws IOException {
+        Files.write(indexFile, "{ not json".getBytes(StandardCharsets.UTF_8));
+        ToolIndex index = new ToolIndex(indexFile);
+        assertNull(index.getVersion("tool", binary, "fingerprint"));
+        index.putVersion("tool", binary, "fingerprint", "1.0.0");
+        assertEquals("1.0.0", new ToolIndex(indexFile).getVersion("tool", binary, "fingerprint"));
+    }
+}
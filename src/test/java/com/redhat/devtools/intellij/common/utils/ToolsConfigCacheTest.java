@@ -0,0 +1,142 @@
+/*******************************************************************************
+ * Copyright (c) 2020 Red Hat, Inc.
+ * Distributed under license by Red Hat, Inc. All rights reserved.
+ * This program is made available under the terms of the
+ * Eclipse Public License v2.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ * Red Hat, Inc.
+ ******************************************************************************/
+package com.redhat.devtools.intellij.common.utils;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class ToolsConfigCacheTest {
+    private static final String ETAG = "\"v1\"";
+
+    private final AtomicInteger fullResponses = new AtomicInteger();
+    private final AtomicInteger notModifiedResponses = new AtomicInteger();
+    private byte[] content;
+    private HttpServer server;
+    private Path folder;
+    private URL url;
+
+    @Before
+    public void setUp() throws IOException {
+        try (InputStream input = ToolsConfigCacheTest.class.getResourceAsStream("/tkn-test.json")) {
+            content = IOUtils.toByteArray(input);
+        }
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/tools.json", this::serve);
+        server.start();
+        folder = Files.createTempDirectory("tools-config-cache");
+        url = new URL("http://localhost:" + server.getAddress().getPort() + "/tools.json");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.stop(0);
+        FileUtils.deleteDirectory(folder.toFile());
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+        exchange.getResponseHeaders().add("ETag", ETAG);
+        if (ETAG.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+            notModifiedResponses.incrementAndGet();
+            exchange.sendResponseHeaders(304, -1);
+        } else {
+            fullResponses.incrementAndGet();
+            exchange.sendResponseHeaders(200, content.length);
+            try (OutputStream output = exchange.getResponseBody()) {
+                output.write(content);
+            }
+        }
+        exchange.close();
+    }
+
+    @Test
+    public void shouldServeFreshConfigFromMemory() throws IOException {
+        ToolsConfigCache cache = new ToolsConfigCache(folder, 60_000);
+        ToolsConfig config = cache.load(url);
+        assertSame(config, cache.load(url));
+        assertEquals("0.5.0", config.getTools().get("tkn").getVersion());
+        assertEquals(1, fullResponses.get());
+        assertEquals(0, notModifiedResponses.get());
+    }
+
+    @Test
+    public void shouldRevalidateStaleConfig() throws IOException {
+        ToolsConfigCache cache = new ToolsConfigCache(folder, 0);
+        ToolsConfig config = cache.load(url);
+        assertSame(config, cache.load(url));
+        assertEquals(1, fullResponses.get());
+        assertEquals(1, notModifiedResponses.get());
+    }
+
+    @Test
+    public void shouldRevalidateConfigCachedOnDisk() throws IOException {
+        new ToolsConfigCache(folder, 0).load(url);
+        ToolsConfig config = new ToolsConfigCache(folder, 0).load(url);
+        assertEquals("0.5.0", config.getTools().get("tkn").getVersion());
+        assertEquals(1, fullResponses.get());
+        assertEquals(1, notModifiedResponses.get());
+    }
+
+    @Test
+    public void shouldFallBackToCachedConfigWhenOffline() throws IOException {
+        new ToolsConfigCache(folder, 0).load(url);
+        server.stop(0);
+        ToolsConfig config = new ToolsConfigCache(folder, 0).load(url);
+        assertEquals("0.5.0", config.getTools().get("tkn").getVersion());
+    }
+
+    @Test(expected = IOException.class)
+    public void shouldFailWhenOfflineWithoutCachedConfig() throws IOException {
+        server.stop(0);
+        new ToolsConfigCache(folder, 0).load(url);
+    }
+
+    @Test
+    public void shouldReuseUnchangedLocalConfig() throws IOException {
+        Path file = folder.resolve("tools.json");
+        Files.write(file, content);
+        ToolsConfigCache cache = new ToolsConfigCache(folder, 0);
+        ToolsConfig config = cache.load(file.toUri().toURL());
+        assertSame(config, cache.load(file.toUri().toURL()));
+    }
+
+    @Test
+    public void shouldReloadLocalConfigWithSameSizeAndModificationTimeCombination() throws IOException {
+        Path file = folder.resolve("tools.json");
+        Files.write(file, content);
+        long lastModified = Files.getLastModifiedTime(file).toMillis();
+        ToolsConfigCache cache = new ToolsConfigCache(folder, 0);
+        assertEquals("0.5.0", cache.load(file.toUri().toURL()).getTools().get("tkn").getVersion());
+        byte[] changed = new String(content, StandardCharsets.UTF_8).replace("0.5.0", "0.10.0").getBytes(StandardCharsets.UTF_8);
+        Files.write(file, changed);
+        // size and modification time both change but their xor does not
+        Files.setLastModifiedTime(file, FileTime.fromMillis(lastModified ^ content.length ^ changed.length));
+        assertEquals("0.10.0", cache.load(file.toUri().toURL()).getTools().get("tkn").getVersion());
+    }
+}
@@ -18,6 +18,8 @@ import java.io.IOException;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class ToolsConfigTest {
   private static ToolsConfig config;
@@ -117,4 +119,50 @@ public class ToolsConfigTest {
     assertFalse(tool.getPlatforms().isEmpty());
     assertNotNull(tool.getPlatforms().get("lnx"));
   }
+
+  @Test
+  public void verifyThatConfigCompilesVersionRegExps() throws IOException {
+    assertNotNull(config);
+    ToolsConfig.Tool tool = config.getTools().get("tkn");
+    assertNotNull(tool);
+    assertTrue(tool.getVersionExtractPattern() == tool.getVersionExtractPattern());
+    assertEquals("version", tool.getVersionArguments()[0]);
+    assertTrue(tool.isCompatible("0.5.0"));
+    assertFalse(tool.isCompatible("1.0.0"));
+    assertFalse(tool.isCompatible(""));
+  }
+
+  @Test
+  public void verifyThatEmptyVersionIsCompatibleIfMatched() {
+    ToolsConfig.Tool tool = new ToolsConfig.Tool();
+    tool.setVersionMatchRegExpr(".*");
+    assertTrue(tool.isCompatible(""));
+    tool.setVersionMatchRegExpr(null);
+    assertFalse(tool.isCompatible(""));
+  }
+
+  @Test
+  public void verifyThatConfigWithoutVersionCmdIsValid() throws IOException {
+    ToolsConfig.Tool tool = new ToolsConfig.Tool();
+    tool.setVersionExtractRegExp("(\\d+[\\.\\d+]*)");
+    ToolsConfig valid = new ToolsConfig();
+    valid.getTools().put("tkn", tool);
+    valid.validate();
+    assertEquals(0, tool.getVersionArguments().length);
+  }
+
+  @Test
+  public void verifyThatInvalidRegExpIsReportedAtLoad() {
+    ToolsConfig.Tool tool = new ToolsConfig.Tool();
+    tool.setVersionCmd("version");
+    tool.setVersionExtractRegExp("Client version: (\\d+");
+    ToolsConfig invalid = new ToolsConfig();
+    invalid.getTools().put("tkn", tool);
+    try {
+      invalid.validate();
+      fail("Invalid regular expression should be reported");
+    } catch (IOException e) {
+      assertTrue(e.getMessage().startsWith("Tool tkn: invalid regular expression"));
+    }
+  }
 }
@@ -0,0 +1,63 @@
+/*******************************************************************************
+ * Copyright (c) 2020 Red Hat, Inc.
+ * Distributed under license by Red Hat, Inc. All rights reserved.
+ * This program is made available under the terms of the
+ * Eclipse Public License v2.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ * Red Hat, Inc.
+ ******************************************************************************/
+package com.redhat.devtools.intellij.common.utils;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class VersionRangeTest {
+    @Test
+    public void shouldCompareVersions() {
+        assertTrue(VersionRange.compare("0.10.0", "0.9.1") > 0);
+        assertEquals(0, VersionRange.compare("1.2", "v1.2.0"));
+        assertTrue(VersionRange.compare("1.2.0-rc1", "1.2.0") < 0);
+        assertEquals(0, VersionRange.compare("1.2.0+build.5", "1.2.0"));
+    }
+
+    @Test
+    public void shouldComparePreReleases() {
+        assertTrue(VersionRange.compare("1.0.0-rc10", "1.0.0-rc2") > 0);
+        assertTrue(VersionRange.compare("1.0.0-rc.10", "1.0.0-rc.2") > 0);
+        assertTrue(VersionRange.compare("1.0.0-alpha", "1.0.0-alpha.1") < 0);
+        assertTrue(VersionRange.compare("1.0.0-alpha.1", "1.0.0-alpha.beta") < 0);
+        assertTrue(VersionRange.compare("1.0.0-beta.11", "1.0.0-rc.1") < 0);
+        assertTrue(VersionRange.compare("1.0.0-1", "1.0.0-alpha") < 0);
+        assertTrue(VersionRange.compare("1.0.0-rc.99999999999999999999", "1.0.0-rc.100000000000000000000") < 0);
+        assertEquals(0, VersionRange.compare("1.0.0-rc.1", "1.0.0-rc.1"));
+        assertTrue(VersionRange.parse(">=1.0.0-rc2 <1.0.0").matches("1.0.0-rc10"));
+    }
+
+    @Test
+    public void shouldMatchRange() {
+        VersionRange range = VersionRange.parse(">=1.2 <2");
+        assertTrue(range.matches("1.2.0"));
+        assertTrue(range.matches("1.10.3"));
+        assertFalse(range.matches("1.1.9"));
+        assertFalse(range.matches("2.0.0"));
+        assertFalse(range.matches("unknown"));
+    }
+
+    @Test
+    public void shouldMatchAlternatives() {
+        VersionRange range = VersionRange.parse("0.5.0 || >=0.7");
+        assertTrue(range.matches("0.5"));
+        assertFalse(range.matches("0.6.0"));
+        assertTrue(range.matches("0.8.1"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectInvalidRange() {
+        VersionRange.parse(">=one");
+    }
+}